@@ -0,0 +1,20 @@
+package org.example.btreeweb.controller;
+
+import org.springframework.http.MediaType;
+
+/*
+Двоичный формат application/x-btree-rows.
+Число - varint: по 7 бит в байте начиная с младших, старший бит байта - признак продолжения.
+Строка - длина в байтах (varint) и байты UTF-8.
+Список строк - последовательность кусков: число строк в куске (varint, больше нуля) и сами строки,
+в конце списка - 0. Куски позволяют писать ответ по ходу обхода дерева, не зная заранее его размера.
+Чтение - BinaryRowsReader, запись - BinaryRowsWriter.
+*/
+public final class BinaryRows {
+
+    public static final String MEDIA_TYPE_VALUE = "application/x-btree-rows";
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+    private BinaryRows() {
+    }
+}
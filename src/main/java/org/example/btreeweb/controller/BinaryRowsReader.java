@@ -0,0 +1,98 @@
+package org.example.btreeweb.controller;
+
+import org.example.btreeweb.exception.MalformedRowsException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Чтение формата BinaryRows через собственный буфер: числа разбираются прямо из буфера,
+строки декодируются из него без промежуточного массива байт.
+Испорченная или оборванная запись - MalformedRowsException.
+*/
+public class BinaryRowsReader {
+
+    //Ограничения, чтобы испорченная длина не заставила выделить гигабайты
+    private static final int MAX_STRING_BYTES = 1 << 20;
+    private static final int MAX_LIST_SIZE = 1 << 20;
+
+    private final InputStream input;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    public BinaryRowsReader(InputStream input) {
+        this(input, 8192);
+    }
+
+    public BinaryRowsReader(InputStream input, int bufferSize) {
+        this.input = input;
+        this.buffer = new byte[bufferSize];
+    }
+
+    //Дочитывает поток, пока в буфере не окажется bytes непрочитанных байт
+    private void require(int bytes, String message) throws IOException {
+        if (limit - position >= bytes) {
+            return;
+        }
+        if (buffer.length < bytes) {
+            var larger = new byte[bytes];
+            System.arraycopy(buffer, position, larger, 0, limit - position);
+            buffer = larger;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+        }
+        limit -= position;
+        position = 0;
+        while (limit < bytes) {
+            int read = input.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                throw new MalformedRowsException(message);
+            }
+            limit += read;
+        }
+    }
+
+    public long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position == limit) {
+                require(1, "Тело запроса оборвалось внутри числа");
+            }
+            int b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MalformedRowsException("Слишком длинное число");
+    }
+
+    public String readString() throws IOException {
+        long length = readVarint();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new MalformedRowsException("Строка длиннее %d байт".formatted(MAX_STRING_BYTES));
+        }
+        require((int) length, "Тело запроса оборвалось внутри строки");
+        var string = new String(buffer, position, (int) length, StandardCharsets.UTF_8);
+        position += (int) length;
+        return string;
+    }
+
+    public List<String> readList() throws IOException {
+        List<String> rows = new ArrayList<>();
+        long count;
+        while ((count = readVarint()) != 0) {
+            if (count < 0 || rows.size() + count > MAX_LIST_SIZE) {
+                throw new MalformedRowsException("Список длиннее %d строк".formatted(MAX_LIST_SIZE));
+            }
+            for (long i = 0; i < count; i++) {
+                rows.add(readString());
+            }
+        }
+        return rows;
+    }
+}
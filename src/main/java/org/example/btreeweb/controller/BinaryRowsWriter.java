@@ -0,0 +1,170 @@
+package org.example.btreeweb.controller;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+Запись в формате BinaryRows через собственный буфер: строки кодируются в UTF-8 прямо в буфер,
+без промежуточного массива байт на каждую строку. Буфер сбрасывается в поток по заполнении и в flush.
+*/
+public class BinaryRowsWriter implements Flushable {
+
+    private final OutputStream output;
+    private final byte[] buffer;
+    private int position;
+    //Символы текущей строки: getChars копирует их разом, дальше циклы идут по массиву, а не через charAt
+    private char[] chars = new char[64];
+    //Последняя измеренная utf8Length строка состоит только из ASCII
+    private boolean ascii;
+
+    public BinaryRowsWriter(OutputStream output) {
+        this(output, 8192);
+    }
+
+    public BinaryRowsWriter(OutputStream output, int bufferSize) {
+        this.output = output;
+        this.buffer = new byte[bufferSize];
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.length - position < bytes) {
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    public void writeVarint(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeString(String string) throws IOException {
+        int count = string.length();
+        //В UTF-8 байт не меньше, чем символов: такая строка в буфер заведомо не поместится
+        if (count > buffer.length) {
+            writeLarge(string.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if (chars.length < count) {
+            chars = new char[Math.min(buffer.length, Math.max(count, chars.length * 2))];
+        }
+        string.getChars(0, count, chars, 0);
+        int length = utf8Length(count);
+        if (length > buffer.length) {
+            writeLarge(string.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        writeVarint(length);
+        ensure(length);
+        if (ascii) {
+            //Только ASCII: байт на символ
+            for (int i = 0; i < count; i++) {
+                buffer[position + i] = (byte) chars[i];
+            }
+            position += count;
+        } else {
+            encode(count);
+        }
+    }
+
+    private void writeLarge(byte[] bytes) throws IOException {
+        writeVarint(bytes.length);
+        output.write(buffer, 0, position);
+        position = 0;
+        output.write(bytes);
+    }
+
+    //Кусок списка; пустой кусок не пишется, 0 зарезервирован под конец списка
+    public void writeChunk(List<String> rows) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        writeVarint(rows.size());
+        for (var row : rows) {
+            writeString(row);
+        }
+    }
+
+    public void endList() throws IOException {
+        writeVarint(0);
+    }
+
+    public void writeList(List<String> rows) throws IOException {
+        writeChunk(rows);
+        endList();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.write(buffer, 0, position);
+        position = 0;
+        output.flush();
+    }
+
+    //Длина и кодирование совпадают с String.getBytes(UTF_8): непарный суррогат заменяется на '?'
+    private int utf8Length(int count) {
+        int length = 0;
+        ascii = true;
+        for (int i = 0; i < count; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                length++;
+                continue;
+            }
+            ascii = false;
+            if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(i, count)) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void encode(int count) {
+        for (int i = 0; i < count; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isSurrogatePair(i, count)) {
+                int codePoint = Character.toCodePoint(c, chars[++i]);
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private boolean isSurrogatePair(int index, int count) {
+        return Character.isHighSurrogate(chars[index])
+                && index + 1 < count
+                && Character.isLowSurrogate(chars[index + 1]);
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.btreeweb.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.example.btreeweb.replication.ChangeSnapshot;
+import org.example.btreeweb.replication.ChangeStreamer;
+import org.example.btreeweb.replication.SnapshotService;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("api/changes")
+public class ChangesController {
+
+    private final ChangeStreamer changeStreamer;
+    private final SnapshotService snapshotService;
+
+    //Поток событий после номера since (или Last-Event-ID при переподключении EventSource),
+    //без since - только новые; ns ограничивает поток одним пространством имён
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(required = false) Long since,
+                             @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                             @RequestParam(required = false) String ns) {
+        return changeStreamer.subscribe(since != null ? since : lastEventId, ns);
+    }
+
+    //Состояние всех пространств имён и номер события, с которого нужно читать поток после него
+    @GetMapping("/snapshot")
+    public ChangeSnapshot snapshot() {
+        return snapshotService.snapshot();
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.btreeweb.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.example.btreeweb.service.RowsService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("api/namespaces")
+public class NamespacesController {
+
+    private final RowsService rowsService;
+
+    @GetMapping
+    public Iterable<String> getNamespaces() {
+        return rowsService.findNamespaces();
+    }
+
+    //Тело запроса необязательно: {"boundaries": ["k1", "k2"]} разбивает пространство на 3 шарда
+    @PostMapping("/{ns}")
+    public CompletableFuture<ResponseEntity<Map<String, String>>> create(@PathVariable String ns,
+                                                                         @RequestBody(required = false) Map<String, List<String>> params) {
+        List<String> boundaries = params == null ? null : params.get("boundaries");
+        return rowsService.createNamespace(ns, boundaries == null ? List.of() : boundaries)
+                .thenApply(created -> ResponseEntity
+                        .status(HttpStatus.CREATED)
+                        .body(Map.of("status", "success")));
+    }
+
+    @DeleteMapping("/{ns}")
+    public CompletableFuture<ResponseEntity<Map<String, String>>> drop(@PathVariable String ns) {
+        return rowsService.dropNamespace(ns)
+                .thenApply(dropped -> ResponseEntity
+                        .ok(Map.of("status", "success")));
+    }
+}
@@ -0,0 +1,176 @@
+package org.example.btreeweb.controller;
+
+import org.example.btreeweb.exception.MalformedRowsException;
+import org.example.btreeweb.repository.RowsRepository;
+import org.example.btreeweb.service.RowsService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/*
+Те же операции /api/rows в двоичном формате application/x-btree-rows (см. BinaryRows) для сервисных клиентов.
+Обработчик выбирается по Content-Type тела, а для GET - по Accept.
+Тело запроса - список строк: для add, delete и contains это пачка ключей на один запрос,
+для between и delete-between - две границы, для equal-length, less-than и more-than - одна строка.
+Списки в ответе пишутся кусками по ходу обхода дерева страницами findAfter, без списка всего результата в памяти;
+страницы читаются под разными блокировками, поэтому параллельные изменения могут попасть в ответ частично.
+add и delete отвечают числом обработанных ключей, contains - списком байт 0/1 в порядке ключей запроса.
+Ошибки возвращаются как обычно в application/problem+json, клиенту стоит указывать его в Accept.
+*/
+@RestController
+@RequestMapping({"api/rows", "api/{ns}/rows"})
+public class RowsBinaryController {
+
+    private final RowsService rowsService;
+    private final int pageSize;
+
+    public RowsBinaryController(RowsService rowsService, @Value("${rows.binary.page-size:1000}") int pageSize) {
+        this.rowsService = rowsService;
+        this.pageSize = pageSize;
+    }
+
+    private String namespace(String ns) {
+        return ns == null ? RowsRepository.DEFAULT_NAMESPACE : ns;
+    }
+
+    private static List<String> read(InputStream body, int expected) throws IOException {
+        var rows = new BinaryRowsReader(body).readList();
+        if (expected >= 0 && rows.size() != expected) {
+            throw new MalformedRowsException("Ожидается строк: %d, получено: %d".formatted(expected, rows.size()));
+        }
+        return rows;
+    }
+
+    private static List<String> read(InputStream body) throws IOException {
+        return read(body, -1);
+    }
+
+    @GetMapping(value = "/all", produces = BinaryRows.MEDIA_TYPE_VALUE)
+    public ResponseEntity<StreamingResponseBody> getRows(@PathVariable(required = false) String ns) {
+        return scan(namespace(ns), null, null);
+    }
+
+    @GetMapping(value = "/first-last", produces = BinaryRows.MEDIA_TYPE_VALUE)
+    public ResponseEntity<byte[]> getFirstAndLast(@PathVariable(required = false) String ns) throws IOException {
+        return list(rowsService.findFirstAndLast(namespace(ns)));
+    }
+
+    @PostMapping(value = "/contains", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public ResponseEntity<byte[]> findIfExists(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        var rows = read(body);
+        var output = new ByteArrayOutputStream(rows.size() + 8);
+        var writer = new BinaryRowsWriter(output);
+        writer.writeVarint(rows.size());
+        for (var row : rows) {
+            writer.writeByte(rowsService.contains(namespace(ns), row) ? 1 : 0);
+        }
+        writer.flush();
+        return bytes(output.toByteArray());
+    }
+
+    @PostMapping(value = "/between", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public ResponseEntity<StreamingResponseBody> getRowsBetween(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        var bounds = read(body, 2);
+        return scan(namespace(ns), bounds.get(0), bounds.get(1));
+    }
+
+    @PostMapping(value = "/equal-length", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public ResponseEntity<byte[]> findIfEquals(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        return list(rowsService.findIfEqualLength(namespace(ns), read(body, 1).get(0)));
+    }
+
+    @PostMapping(value = "/less-than", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public ResponseEntity<StreamingResponseBody> findIfLessThan(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        return scan(namespace(ns), null, read(body, 1).get(0));
+    }
+
+    @PostMapping(value = "/more-than", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public ResponseEntity<StreamingResponseBody> findIfMoreThan(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        return scan(namespace(ns), read(body, 1).get(0), null);
+    }
+
+    @PostMapping(value = "/add", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public CompletableFuture<ResponseEntity<byte[]>> insert(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        return rowsService.addAll(namespace(ns), read(body))
+                .thenApply(RowsBinaryController::count);
+    }
+
+    @DeleteMapping(value = "/delete", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public CompletableFuture<ResponseEntity<byte[]>> delete(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        return rowsService.removeAll(namespace(ns), read(body))
+                .thenApply(RowsBinaryController::count);
+    }
+
+    @DeleteMapping(value = "/delete-between", consumes = BinaryRows.MEDIA_TYPE_VALUE)
+    public CompletableFuture<ResponseEntity<byte[]>> deleteBetween(@PathVariable(required = false) String ns, InputStream body) throws IOException {
+        var bounds = read(body, 2);
+        return rowsService.deleteBetween(namespace(ns), bounds.get(0), bounds.get(1))
+                .thenApply(RowsBinaryController::count);
+    }
+
+    //Ключи строго после after и строго меньше before (null - без ограничения), страницами по pageSize
+    private ResponseEntity<StreamingResponseBody> scan(String namespace, String after, String before) {
+        //Проверка пространства имён до начала ответа: потом ошибку уже не вернуть статусом
+        var ordering = rowsService.rowOrdering(namespace);
+        var belowBefore = before == null ? null : ordering.lessThan(before);
+        StreamingResponseBody body = output -> {
+            var writer = new BinaryRowsWriter(output);
+            String last = after;
+            while (true) {
+                var page = rowsService.findAfter(namespace, last, pageSize);
+                int end = page.size();
+                if (belowBefore != null) {
+                    while (end > 0 && !belowBefore.test(page.get(end - 1))) {
+                        end--;
+                    }
+                }
+                writer.writeChunk(page.subList(0, end));
+                if (end < page.size() || page.size() < pageSize) {
+                    break;
+                }
+                last = page.get(page.size() - 1);
+            }
+            writer.endList();
+            writer.flush();
+        };
+        return ResponseEntity
+                .ok()
+                .contentType(BinaryRows.MEDIA_TYPE)
+                .body(body);
+    }
+
+    private static ResponseEntity<byte[]> list(List<String> rows) throws IOException {
+        var output = new ByteArrayOutputStream();
+        var writer = new BinaryRowsWriter(output);
+        writer.writeList(rows);
+        writer.flush();
+        return bytes(output.toByteArray());
+    }
+
+    private static ResponseEntity<byte[]> count(int count) {
+        var output = new ByteArrayOutputStream(10);
+        try {
+            var writer = new BinaryRowsWriter(output, 10);
+            writer.writeVarint(count);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes(output.toByteArray());
+    }
+
+    private static ResponseEntity<byte[]> bytes(byte[] body) {
+        return ResponseEntity
+                .ok()
+                .contentType(BinaryRows.MEDIA_TYPE)
+                .body(body);
+    }
+}
@@ -1,88 +1,128 @@
 package org.example.btreeweb.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.example.btreeweb.exception.NoSuchKeyException;
+import org.example.btreeweb.exception.ReadOnlyReplicaException;
+import org.example.btreeweb.exception.WriteQueueFullException;
+import org.example.btreeweb.repository.RowsRepository;
 import org.example.btreeweb.service.RowsService;
+import org.example.btreeweb.service.SetOperation;
+import org.example.btreeweb.service.SetOperationsService;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequiredArgsConstructor
-@RequestMapping("api/rows")
+@RequestMapping({"api/rows", "api/{ns}/rows"})
 public class RowsController {
 
     private final RowsService rowsService;
+    private final SetOperationsService setOperationsService;
+    private final ObjectMapper objectMapper;
+
+    //Запросы без пространства имён в пути (api/rows/...) работают с пространством по умолчанию
+    private String namespace(String ns) {
+        return ns == null ? RowsRepository.DEFAULT_NAMESPACE : ns;
+    }
 
     @GetMapping("/all")
-    public Iterable<String> getRows() {
-        return rowsService.findAll();
+    public Iterable<String> getRows(@PathVariable(required = false) String ns) {
+        return rowsService.findAll(namespace(ns));
+    }
+
+    //Порядок строк дерева, по нему страница решает, можно ли вставлять изменения в свой список самой
+    @GetMapping("/ordering")
+    public Map<String, String> getOrdering(@PathVariable(required = false) String ns) {
+        return Map.of("ordering", rowsService.ordering(namespace(ns)));
     }
 
     @PostMapping("/contains")
-    public boolean findIfExists(@RequestBody Map<String, String> params) {
-        return rowsService.contains(params.get("row"));
+    public boolean findIfExists(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) {
+        return rowsService.contains(namespace(ns), params.get("row"));
     }
 
     @GetMapping("/first-last")
-    public Iterable<String>getFirstLast() {
-        return rowsService.findFirstAndLast();
+    public Iterable<String>getFirstLast(@PathVariable(required = false) String ns) {
+        return rowsService.findFirstAndLast(namespace(ns));
     }
 
     @PostMapping("/between")
-    public Iterable<String> getRowsBetween(@RequestBody Map<String, String> params) {
-        return rowsService.findBetween(params.get("str1"), params.get("str2"));
+    public Iterable<String> getRowsBetween(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) {
+        return rowsService.findBetween(namespace(ns), params.get("str1"), params.get("str2"));
     }
 
     @PostMapping("/equal-length")
-    public Iterable<String> findIfEquals(@RequestBody Map<String, String> params) {
-        return rowsService.findIfEqualLength(params.get("row"));
+    public Iterable<String> findIfEquals(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) {
+        return rowsService.findIfEqualLength(namespace(ns), params.get("row"));
     }
 
     @PostMapping("/less-than")
-    public Iterable<String> findIfLessThan(@RequestBody Map<String, String> params) {
-        return rowsService.findIfLessThan(params.get("row"));
+    public Iterable<String> findIfLessThan(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) {
+        return rowsService.findIfLessThan(namespace(ns), params.get("row"));
     }
 
     @PostMapping("/more-than")
-    public Iterable<String> findIfMoreThan(@RequestBody Map<String, String> params) {
-        return rowsService.findIfMoreThan(params.get("row"));
+    public Iterable<String> findIfMoreThan(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) {
+        return rowsService.findIfMoreThan(namespace(ns), params.get("row"));
     }
 
     @PostMapping("/add")
-    public ResponseEntity<?> insert(@RequestBody Map<String, String> params) {
-        try {
-            rowsService.add(params.get("row"));
-            return ResponseEntity.ok().body(Map.of("status", "success"));
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
-        }
+    public CompletableFuture<ResponseEntity<?>> insert(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) {
+        return rowsService.add(namespace(ns), params.get("row"))
+                .<ResponseEntity<?>>handle((result, e) -> {
+                    if (e == null) {
+                        return ResponseEntity.ok().body(Map.of("status", "success"));
+                    }
+                    var cause = e instanceof CompletionException ? e.getCause() : e;
+                    //Переполнение очереди записи и запись в реплику - не ошибки запроса, отдаём их обработчикам (503, 403)
+                    if (cause instanceof WriteQueueFullException writeQueueFullException) {
+                        throw writeQueueFullException;
+                    }
+                    if (cause instanceof ReadOnlyReplicaException readOnlyReplicaException) {
+                        throw readOnlyReplicaException;
+                    }
+                    return ResponseEntity.badRequest().body(Map.of("error", String.valueOf(cause.getMessage())));
+                });
     }
 
     @DeleteMapping("/delete")
-    public ResponseEntity<?> delete(@RequestBody Map<String, String> params) throws NoSuchKeyException {
-        if(rowsService.contains(params.get("row"))){
-            rowsService.remove(params.get("row"));
-            return ResponseEntity
-                    .ok()
-                    .body(Map.of("status", "success"));
+    public CompletableFuture<ResponseEntity<?>> delete(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) throws NoSuchKeyException {
+        if(rowsService.contains(namespace(ns), params.get("row"))){
+            return rowsService.remove(namespace(ns), params.get("row"))
+                    .<ResponseEntity<?>>thenApply(result -> ResponseEntity
+                            .ok()
+                            .body(Map.of("status", "success")));
         }
         String value = "Ключ %s не найден".formatted(params.get("row"));
         throw new NoSuchKeyException(value);
     }
 
+    @DeleteMapping("/delete-between")
+    public CompletableFuture<ResponseEntity<Map<String, Integer>>> deleteBetween(@PathVariable(required = false) String ns, @RequestBody Map<String, String> params) {
+        return rowsService.deleteBetween(namespace(ns), params.get("str1"), params.get("str2"))
+                .thenApply(removed -> ResponseEntity
+                        .ok(Map.of("removed", removed)));
+    }
+
     @DeleteMapping("/clear")
-    public ResponseEntity<Map<String,String>> clear() {
-        rowsService.clear();
-        return ResponseEntity
-                .ok(Map.of("result","Дерево очищено"));
+    public CompletableFuture<ResponseEntity<Map<String,String>>> clear(@PathVariable(required = false) String ns) {
+        return rowsService.clear(namespace(ns))
+                .thenApply(result -> ResponseEntity
+                        .ok(Map.of("result","Дерево очищено")));
     }
 
     private List<String>getRowsFromFile(MultipartFile file) throws IOException {
@@ -99,12 +139,65 @@ public class RowsController {
     }
 
     @PostMapping("/upload-file")
-    public ResponseEntity<Integer> uploadFile(@RequestParam("file") MultipartFile file) throws IOException{
+    public CompletableFuture<ResponseEntity<Integer>> uploadFile(@PathVariable(required = false) String ns, @RequestParam("file") MultipartFile file) throws IOException{
         var rows = getRowsFromFile(file);
-        rowsService.clear();
-        rows.forEach(rowsService::add);
+        return rowsService.load(namespace(ns), rows)
+                .thenApply(result -> ResponseEntity
+                        .ok()
+                        .body(rows.size()));
+    }
+
+    //Операции над множествами ключей дерева и строк файла: sorted=true - файл уже отсортирован,
+    //apply=true - дерево приводится к результату, в ответе только размеры, иначе ответ - ключи результата
+    @PostMapping("/intersection")
+    public ResponseEntity<?> intersection(@PathVariable(required = false) String ns, @RequestParam("file") MultipartFile file,
+                                          @RequestParam(defaultValue = "false") boolean sorted,
+                                          @RequestParam(defaultValue = "false") boolean apply) throws IOException {
+        return setOperation(namespace(ns), SetOperation.INTERSECTION, file, sorted, apply);
+    }
+
+    @PostMapping("/difference")
+    public ResponseEntity<?> difference(@PathVariable(required = false) String ns, @RequestParam("file") MultipartFile file,
+                                        @RequestParam(defaultValue = "false") boolean sorted,
+                                        @RequestParam(defaultValue = "false") boolean apply) throws IOException {
+        return setOperation(namespace(ns), SetOperation.DIFFERENCE, file, sorted, apply);
+    }
+
+    @PostMapping("/symmetric-difference")
+    public ResponseEntity<?> symmetricDifference(@PathVariable(required = false) String ns, @RequestParam("file") MultipartFile file,
+                                                 @RequestParam(defaultValue = "false") boolean sorted,
+                                                 @RequestParam(defaultValue = "false") boolean apply) throws IOException {
+        return setOperation(namespace(ns), SetOperation.SYMMETRIC_DIFFERENCE, file, sorted, apply);
+    }
+
+    private ResponseEntity<?> setOperation(String namespace, SetOperation operation, MultipartFile file,
+                                           boolean sorted, boolean apply) throws IOException {
+        var lines = setOperationsService.sortedLines(namespace, file.getInputStream(), sorted);
+        if (apply) {
+            try (lines) {
+                return ResponseEntity.ok(setOperationsService.apply(namespace, operation, lines, true, key -> {}));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        StreamingResponseBody body = outputStream -> {
+            try (lines; var generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                setOperationsService.apply(namespace, operation, lines, false, key -> {
+                    try {
+                        generator.writeString(key);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
         return ResponseEntity
                 .ok()
-                .body(rows.size());
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
     }
 }
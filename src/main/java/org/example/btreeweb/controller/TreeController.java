@@ -0,0 +1,55 @@
+package org.example.btreeweb.controller;
+
+import org.example.btreeweb.repository.RowsRepository;
+import org.example.btreeweb.repository.TreeStructure;
+import org.example.btreeweb.service.RowsService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.*;
+
+/*
+Структура B-дерева для визуализации больших деревьев по частям.
+GET / - корни шардов и depth верхних уровней, GET /nodes/{id} - узел и depth уровней его потомков (догрузка по клику),
+GET /changes?since=V - только узлы, изменившиеся после версии V из прошлого ответа.
+id узла не меняется, пока узел остаётся в дереве; узел, которого больше нет, отвечает 404.
+В одном ответе не больше rows.tree.max-nodes узлов, при обрезке truncated = true.
+*/
+@RestController
+@RequestMapping({"api/tree", "api/{ns}/tree"})
+public class TreeController {
+
+    private final RowsService rowsService;
+    private final int maxNodes;
+
+    public TreeController(RowsService rowsService, @Value("${rows.tree.max-nodes:1000}") int maxNodes) {
+        this.rowsService = rowsService;
+        this.maxNodes = maxNodes;
+    }
+
+    private String namespace(String ns) {
+        return ns == null ? RowsRepository.DEFAULT_NAMESPACE : ns;
+    }
+
+    private int limit(Integer limit) {
+        return limit == null ? maxNodes : Math.max(1, Math.min(limit, maxNodes));
+    }
+
+    @GetMapping
+    public TreeStructure getStructure(@PathVariable(required = false) String ns,
+                                      @RequestParam(defaultValue = "2") int depth,
+                                      @RequestParam(required = false) Integer limit) {
+        return rowsService.findStructure(namespace(ns), depth, limit(limit));
+    }
+
+    @GetMapping("/nodes/{id}")
+    public TreeStructure getNodeChildren(@PathVariable(required = false) String ns, @PathVariable long id,
+                                         @RequestParam(defaultValue = "1") int depth,
+                                         @RequestParam(required = false) Integer limit) {
+        return rowsService.findNodeChildren(namespace(ns), id, depth, limit(limit));
+    }
+
+    @GetMapping("/changes")
+    public TreeStructure getChanges(@PathVariable(required = false) String ns, @RequestParam long since,
+                                    @RequestParam(required = false) Integer limit) {
+        return rowsService.findStructureChanges(namespace(ns), since, limit(limit));
+    }
+}
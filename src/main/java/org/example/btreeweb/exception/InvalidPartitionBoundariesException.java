@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class InvalidPartitionBoundariesException extends RuntimeException {
+    public InvalidPartitionBoundariesException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class MalformedRowsException extends RuntimeException {
+    public MalformedRowsException(String message) {
+        super(message);
+    }
+}
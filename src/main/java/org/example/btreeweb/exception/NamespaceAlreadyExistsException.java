@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class NamespaceAlreadyExistsException extends RuntimeException {
+    public NamespaceAlreadyExistsException(String message) {
+        super(message);
+    }
+}
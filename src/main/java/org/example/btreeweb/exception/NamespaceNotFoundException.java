@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class NamespaceNotFoundException extends RuntimeException {
+    public NamespaceNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class ReadOnlyReplicaException extends RuntimeException {
+    public ReadOnlyReplicaException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class TreeNodeNotFoundException extends RuntimeException {
+    public TreeNodeNotFoundException(String message) {
+        super(message);
+    }
+}
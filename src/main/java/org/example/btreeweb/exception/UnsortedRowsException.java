@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class UnsortedRowsException extends RuntimeException {
+    public UnsortedRowsException(String message) {
+        super(message);
+    }
+}
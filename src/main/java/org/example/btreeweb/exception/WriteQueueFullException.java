@@ -0,0 +1,7 @@
+package org.example.btreeweb.exception;
+
+public class WriteQueueFullException extends RuntimeException {
+    public WriteQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -3,7 +3,15 @@ package org.example.btreeweb.exception_handling;
 import lombok.RequiredArgsConstructor;
 import org.example.btreeweb.exception.FailedToAddKeyException;
 import org.example.btreeweb.exception.FailedToRemoveKeyException;
+import org.example.btreeweb.exception.InvalidPartitionBoundariesException;
+import org.example.btreeweb.exception.MalformedRowsException;
+import org.example.btreeweb.exception.NamespaceAlreadyExistsException;
+import org.example.btreeweb.exception.NamespaceNotFoundException;
 import org.example.btreeweb.exception.NoSuchKeyException;
+import org.example.btreeweb.exception.ReadOnlyReplicaException;
+import org.example.btreeweb.exception.TreeNodeNotFoundException;
+import org.example.btreeweb.exception.UnsortedRowsException;
+import org.example.btreeweb.exception.WriteQueueFullException;
 import org.springframework.context.MessageSource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
@@ -63,4 +71,84 @@ public class GlobalExceptionHandler {
                 .status(HttpStatus.NOT_FOUND)
                 .body(problemDetail);
     }
+
+    @ExceptionHandler(NamespaceNotFoundException.class)
+    public ResponseEntity<ProblemDetail>handleNamespaceNotFoundException(NamespaceNotFoundException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND,
+                messageSource.getMessage("errors.namespace.not_found",new Object[0],"errors.namespace.not_found",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.NOT_FOUND)
+                .body(problemDetail);
+    }
+
+    @ExceptionHandler(TreeNodeNotFoundException.class)
+    public ResponseEntity<ProblemDetail>handleTreeNodeNotFoundException(TreeNodeNotFoundException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND,
+                messageSource.getMessage("errors.tree.node_not_found",new Object[0],"errors.tree.node_not_found",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.NOT_FOUND)
+                .body(problemDetail);
+    }
+
+    @ExceptionHandler(NamespaceAlreadyExistsException.class)
+    public ResponseEntity<ProblemDetail>handleNamespaceAlreadyExistsException(NamespaceAlreadyExistsException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.CONFLICT,
+                messageSource.getMessage("errors.namespace.already_exists",new Object[0],"errors.namespace.already_exists",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.CONFLICT)
+                .body(problemDetail);
+    }
+
+    @ExceptionHandler(InvalidPartitionBoundariesException.class)
+    public ResponseEntity<ProblemDetail>handleInvalidPartitionBoundariesException(InvalidPartitionBoundariesException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,
+                messageSource.getMessage("errors.namespace.boundaries",new Object[0],"errors.namespace.boundaries",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .badRequest()
+                .body(problemDetail);
+    }
+
+    @ExceptionHandler(WriteQueueFullException.class)
+    public ResponseEntity<ProblemDetail>handleWriteQueueFullException(WriteQueueFullException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE,
+                messageSource.getMessage("errors.tree.write_queue_full",new Object[0],"errors.tree.write_queue_full",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(problemDetail);
+    }
+
+    @ExceptionHandler(ReadOnlyReplicaException.class)
+    public ResponseEntity<ProblemDetail>handleReadOnlyReplicaException(ReadOnlyReplicaException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.FORBIDDEN,
+                messageSource.getMessage("errors.tree.read_only_replica",new Object[0],"errors.tree.read_only_replica",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.FORBIDDEN)
+                .body(problemDetail);
+    }
+
+    @ExceptionHandler(MalformedRowsException.class)
+    public ResponseEntity<ProblemDetail>handleMalformedRowsException(MalformedRowsException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,
+                messageSource.getMessage("errors.binary.malformed",new Object[0],"errors.binary.malformed",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .badRequest()
+                .body(problemDetail);
+    }
+
+    @ExceptionHandler(UnsortedRowsException.class)
+    public ResponseEntity<ProblemDetail>handleUnsortedRowsException(UnsortedRowsException ex, Locale locale) {
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,
+                messageSource.getMessage("errors.upload-file.unsorted",new Object[0],"errors.upload-file.unsorted",locale));
+        problemDetail.setProperty("error",ex.getMessage());
+        return ResponseEntity
+                .badRequest()
+                .body(problemDetail);
+    }
 }
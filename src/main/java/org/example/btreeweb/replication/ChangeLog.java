@@ -0,0 +1,109 @@
+package org.example.btreeweb.replication;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.btreeweb.repository.ChangeEvent;
+import org.example.btreeweb.repository.RowsChangeListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+Журнал изменений: кольцевой буфер последних rows.changes.capacity событий с возрастающими номерами.
+Запись без общей блокировки - номер выдаёт AtomicLong, событие кладётся в ячейку seq % capacity,
+так что шарды разных пространств имён не ждут друг друга.
+Номер последнего события публикуется метрикой btree.changes.sequence.
+Событие с номером seq читается из ячейки, только если в ней лежит именно оно:
+меньший номер - событие ещё не записано, больший - уже вытеснено.
+Кроме числа событий журнал ограничен числом строк в них (rows.changes.max-rows): одно событие LOAD или addAll
+несёт всю загрузку. При превышении самые старые события вытесняются раньше, чем их ячейку займёт новое,
+подписчик, отставший дальше, получает reset. Событие без строк (CLEAR, DROP_NAMESPACE) считается за одну строку.
+*/
+@Component
+public class ChangeLog implements RowsChangeListener {
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final long maxRows;
+    //Строк в событиях, лежащих в журнале
+    private final AtomicLong heldRows = new AtomicLong();
+    //События с номерами не больше этого вытеснены по лимиту строк
+    private volatile long evicted;
+
+    public ChangeLog(@Value("${rows.changes.capacity:100000}") int capacity,
+                     @Value("${rows.changes.max-rows:1000000}") long maxRows,
+                     MeterRegistry meterRegistry) {
+        ring = new AtomicReferenceArray<>(capacity);
+        this.maxRows = maxRows;
+        Gauge.builder("btree.changes.sequence", sequence, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("btree.changes.rows", heldRows, AtomicLong::get)
+                .register(meterRegistry);
+    }
+
+    private static int weight(ChangeEvent event) {
+        return Math.max(1, event.rows().size());
+    }
+
+    @Override
+    public void onChange(ChangeEvent.Type type, String namespace, List<String> rows) {
+        long seq = sequence.incrementAndGet();
+        var event = new ChangeEvent(seq, type, namespace, List.copyOf(rows), System.currentTimeMillis());
+        int index = index(seq);
+        ChangeEvent current;
+        do {
+            current = ring.get(index);
+            //Отставший писатель не затирает более новое событие, попавшее в ту же ячейку
+            if (current != null && current.seq() > seq) {
+                return;
+            }
+        } while (!ring.compareAndSet(index, current, event));
+        //Строки вытесненного из ячейки события вычитает тот, кто его вытеснил
+        heldRows.addAndGet(weight(event) - (current == null ? 0 : weight(current)));
+        if (heldRows.get() > maxRows) {
+            evict();
+        }
+    }
+
+    //Убирает самые старые события, пока строк больше maxRows. Останавливается на номере,
+    //событие которого ещё не записано: его строки пока не учтены
+    private synchronized void evict() {
+        while (heldRows.get() > maxRows) {
+            long seq = evicted + 1;
+            if (seq > sequence.get()) {
+                return;
+            }
+            int index = index(seq);
+            var event = ring.get(index);
+            if (event == null || event.seq() < seq) {
+                return;
+            }
+            if (event.seq() == seq && ring.compareAndSet(index, event, null)) {
+                heldRows.addAndGet(-weight(event));
+            }
+            evicted = seq;
+        }
+    }
+
+    private int index(long seq) {
+        return (int) (seq % ring.length());
+    }
+
+    //Номер последнего выданного события
+    public long head() {
+        return sequence.get();
+    }
+
+    public boolean isEvicted(long seq) {
+        return seq <= head() - ring.length() || seq <= evicted;
+    }
+
+    //null, если событие ещё не записано или уже вытеснено (см. isEvicted)
+    public ChangeEvent get(long seq) {
+        var event = ring.get(index(seq));
+        return event != null && event.seq() == seq ? event : null;
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.btreeweb.replication;
+
+import java.util.List;
+import java.util.Map;
+
+//Полное состояние всех пространств имён; события после seq могут быть в нём уже учтены,
+//их повторное применение ничего не портит
+public record ChangeSnapshot(long seq, Map<String, NamespaceSnapshot> namespaces) {
+
+    public record NamespaceSnapshot(List<String> boundaries, List<String> rows) {
+    }
+}
@@ -0,0 +1,157 @@
+package org.example.btreeweb.replication;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+Рассылка журнала изменений подписчикам по Server-Sent Events.
+Поток change-streamer раз в rows.changes.poll-interval-ms раздаёт подписчикам задачи дочитать журнал от их позиции,
+сами отправки идут в пуле change-sender, у каждого подписчика не больше одной отправки за раз.
+Поэтому медленный клиент задерживает только себя. Подписчик, чья отправка не закончилась за rows.changes.send-timeout-ms,
+отключается - клиент переподключится с Last-Event-ID.
+Событие SSE: id - номер, имя - тип изменения, данные - ChangeEvent в JSON.
+Раз в rows.changes.heartbeat-interval-ms отправляется heartbeat с номером последнего события журнала.
+Если подписчик отстал больше ёмкости журнала, он получает reset и должен перечитать снимок.
+*/
+@Component
+public class ChangeStreamer {
+
+    private static class Subscription {
+        private final SseEmitter emitter;
+        private final String namespace;
+        private long position;
+        private final AtomicBoolean sending = new AtomicBoolean();
+        //Начало текущей отправки (System.nanoTime())
+        private volatile long sendStarted;
+
+        private Subscription(SseEmitter emitter, String namespace, long position) {
+            this.emitter = emitter;
+            this.namespace = namespace;
+            this.position = position;
+        }
+    }
+
+    private final ChangeLog changeLog;
+    private final long heartbeatIntervalMs;
+    private final long sendTimeoutNanos;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "change-streamer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //Потоки создаются по мере надобности: занятых не больше, чем подписчиков, которые сейчас принимают события
+    private final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "change-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long lastHeartbeat;
+
+    public ChangeStreamer(ChangeLog changeLog,
+                          @Value("${rows.changes.poll-interval-ms:50}") long pollIntervalMs,
+                          @Value("${rows.changes.heartbeat-interval-ms:5000}") long heartbeatIntervalMs,
+                          @Value("${rows.changes.send-timeout-ms:10000}") long sendTimeoutMs) {
+        this.changeLog = changeLog;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        scheduler.scheduleWithFixedDelay(this::dispatch, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        senders.shutdownNow();
+        subscriptions.forEach(subscription -> subscription.emitter.complete());
+    }
+
+    //since == null - только новые события; namespace == null - события всех пространств имён
+    public SseEmitter subscribe(Long since, String namespace) {
+        return subscribe(new SseEmitter(0L), since, namespace);
+    }
+
+    SseEmitter subscribe(SseEmitter emitter, Long since, String namespace) {
+        var subscription = new Subscription(emitter, namespace, since == null ? changeLog.head() : since);
+        emitter.onCompletion(() -> subscriptions.remove(subscription));
+        emitter.onError(e -> subscriptions.remove(subscription));
+        subscriptions.add(subscription);
+        return emitter;
+    }
+
+    private void dispatch() {
+        long head = changeLog.head();
+        boolean heartbeat = System.currentTimeMillis() - lastHeartbeat >= heartbeatIntervalMs;
+        if (heartbeat) {
+            lastHeartbeat = System.currentTimeMillis();
+        }
+        long now = System.nanoTime();
+        for (var subscription : subscriptions) {
+            if (!subscription.sending.compareAndSet(false, true)) {
+                //Прошлая отправка ещё идёт: ждём её, пока не выйдет время
+                if (now - subscription.sendStarted > sendTimeoutNanos) {
+                    subscriptions.remove(subscription);
+                    //completeWithError ждёт зависшую отправку, поэтому тоже в пуле
+                    senders.execute(() -> subscription.emitter.completeWithError(
+                            new IOException("Подписчик не принимает события дольше send-timeout-ms")));
+                }
+                continue;
+            }
+            subscription.sendStarted = now;
+            senders.execute(() -> deliver(subscription, head, heartbeat));
+        }
+    }
+
+    private void deliver(Subscription subscription, long head, boolean heartbeat) {
+        try {
+            send(subscription, head);
+            if (heartbeat && subscriptions.contains(subscription)) {
+                subscription.emitter.send(SseEmitter.event()
+                        .name("heartbeat")
+                        .data(Map.of("seq", head)));
+            }
+        } catch (IOException | RuntimeException e) {
+            subscriptions.remove(subscription);
+            subscription.emitter.completeWithError(e);
+        } finally {
+            subscription.sending.set(false);
+        }
+    }
+
+    private void send(Subscription subscription, long head) throws IOException {
+        while (subscription.position < head) {
+            long seq = subscription.position + 1;
+            if (changeLog.isEvicted(seq)) {
+                subscription.emitter.send(SseEmitter.event()
+                        .name("reset")
+                        .data(Map.of("seq", head)));
+                subscriptions.remove(subscription);
+                subscription.emitter.complete();
+                return;
+            }
+            var event = changeLog.get(seq);
+            if (event == null) {
+                //Номер уже выдан, но событие ещё записывается - дочитаем в следующий раз
+                return;
+            }
+            if (subscription.namespace == null || subscription.namespace.equals(event.namespace())) {
+                subscription.emitter.send(SseEmitter.event()
+                        .id(Long.toString(seq))
+                        .name(event.type().name())
+                        .data(event));
+            }
+            subscription.position = seq;
+        }
+    }
+}
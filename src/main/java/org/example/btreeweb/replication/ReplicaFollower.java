@@ -0,0 +1,182 @@
+package org.example.btreeweb.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.btreeweb.exception.NamespaceAlreadyExistsException;
+import org.example.btreeweb.exception.NamespaceNotFoundException;
+import org.example.btreeweb.repository.ChangeEvent;
+import org.example.btreeweb.repository.RowsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Iterator;
+
+/*
+Режим реплики (задан rows.replication.leader-url): поток читает журнал изменений лидера по SSE
+и применяет события к своим деревьям. При первом запуске, после reset или пропуска номера
+состояние перечитывается целиком из снимка лидера, затем поток продолжается с его номера.
+Отставание публикуется метриками btree.replica.lag.events (событий) и btree.replica.lag.seconds
+(задержка последнего применённого события относительно его времени на лидере).
+*/
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "rows.replication.leader-url")
+public class ReplicaFollower {
+
+    private final String leaderUrl;
+    private final long retryIntervalMs;
+    private final RowsRepository rowsRepository;
+    private final SnapshotService snapshotService;
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final Thread follower = new Thread(this::followLoop, "replica-follower");
+    private volatile boolean running = true;
+
+    //-1 - нужно перечитать снимок
+    private volatile long appliedSeq = -1;
+    private volatile long leaderSeq;
+    private volatile long lagMs;
+
+    public ReplicaFollower(@Value("${rows.replication.leader-url}") String leaderUrl,
+                           @Value("${rows.replication.retry-interval-ms:1000}") long retryIntervalMs,
+                           RowsRepository rowsRepository, SnapshotService snapshotService,
+                           ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.leaderUrl = leaderUrl;
+        this.retryIntervalMs = retryIntervalMs;
+        this.rowsRepository = rowsRepository;
+        this.snapshotService = snapshotService;
+        this.objectMapper = objectMapper;
+        Gauge.builder("btree.replica.lag.events", this, f -> Math.max(0, f.leaderSeq - f.appliedSeq))
+                .register(meterRegistry);
+        Gauge.builder("btree.replica.lag.seconds", this, f -> f.lagMs / 1000.0)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    private void followLoop() {
+        while (running) {
+            try {
+                if (appliedSeq < 0) {
+                    resync();
+                }
+                follow();
+            } catch (Exception e) {
+                log.warn("Потеряна связь с лидером {}: {}", leaderUrl, e.getMessage());
+                try {
+                    Thread.sleep(retryIntervalMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void resync() throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create(leaderUrl + "/api/changes/snapshot")).build();
+        var response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            throw new IOException("Лидер вернул " + response.statusCode());
+        }
+        ChangeSnapshot snapshot;
+        try (var body = response.body()) {
+            snapshot = objectMapper.readValue(body, ChangeSnapshot.class);
+        }
+        snapshotService.restore(snapshot);
+        appliedSeq = snapshot.seq();
+        leaderSeq = Math.max(leaderSeq, snapshot.seq());
+    }
+
+    //Читает поток событий, пока он не оборвётся или лидер не потребует перечитать снимок
+    private void follow() throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create(leaderUrl + "/api/changes?since=" + appliedSeq))
+                .header("Accept", "text/event-stream")
+                .build();
+        var response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+        if (response.statusCode() != 200) {
+            throw new IOException("Лидер вернул " + response.statusCode());
+        }
+        try (var lines = response.body()) {
+            String name = null;
+            var data = new StringBuilder();
+            for (Iterator<String> iterator = lines.iterator(); running && iterator.hasNext(); ) {
+                var line = iterator.next();
+                if (line.startsWith("event:")) {
+                    name = line.substring("event:".length()).trim();
+                } else if (line.startsWith("data:")) {
+                    data.append(line.substring("data:".length()).trim());
+                } else if (line.isEmpty() && name != null) {
+                    if (!handle(name, data.toString())) {
+                        return;
+                    }
+                    name = null;
+                    data.setLength(0);
+                }
+            }
+        }
+    }
+
+    private boolean handle(String name, String data) throws IOException {
+        switch (name) {
+            case "heartbeat" -> {
+                leaderSeq = Math.max(leaderSeq, objectMapper.readTree(data).get("seq").asLong());
+                if (appliedSeq >= leaderSeq) {
+                    lagMs = 0;
+                }
+                return true;
+            }
+            case "reset" -> {
+                appliedSeq = -1;
+                return false;
+            }
+            default -> {
+                var event = objectMapper.readValue(data, ChangeEvent.class);
+                if (event.seq() != appliedSeq + 1) {
+                    appliedSeq = -1;
+                    return false;
+                }
+                apply(rowsRepository, event);
+                appliedSeq = event.seq();
+                leaderSeq = Math.max(leaderSeq, event.seq());
+                lagMs = Math.max(0, System.currentTimeMillis() - event.timestamp());
+                return true;
+            }
+        }
+    }
+
+    //Повторное применение события, уже учтённого снимком, ничего не меняет
+    static void apply(RowsRepository rowsRepository, ChangeEvent event) {
+        var namespace = event.namespace();
+        try {
+            switch (event.type()) {
+                case ADD -> rowsRepository.addAll(namespace, event.rows());
+                case REMOVE -> rowsRepository.removeAll(namespace, event.rows());
+                case CLEAR -> rowsRepository.clear(namespace);
+                case DELETE_RANGE -> rowsRepository.deleteBetween(namespace, event.rows().get(0), event.rows().get(1));
+                case CREATE_NAMESPACE -> rowsRepository.createNamespace(namespace, event.rows());
+                case DROP_NAMESPACE -> rowsRepository.dropNamespace(namespace);
+            }
+        } catch (NamespaceNotFoundException | NamespaceAlreadyExistsException e) {
+            //Событие уже учтено снимком или относится к удалённому пространству имён
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.btreeweb.replication;
+
+import lombok.RequiredArgsConstructor;
+import org.example.btreeweb.repository.RowsRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Service
+@RequiredArgsConstructor
+public class SnapshotService {
+
+    private final RowsRepository rowsRepository;
+    private final ChangeLog changeLog;
+
+    //Номер берётся до чтения деревьев: всё, что изменится во время чтения, придёт событиями после него.
+    //Пока идёт снимок, пространства имён не создаются и не удаляются: иначе номер мог бы уже включать
+    //событие CREATE_NAMESPACE/DROP_NAMESPACE, а набор пространств - ещё нет, и реплика его бы не повторила
+    public ChangeSnapshot snapshot() {
+        return rowsRepository.withNamespacesLocked(() -> {
+            long seq = changeLog.head();
+            Map<String, ChangeSnapshot.NamespaceSnapshot> namespaces = new HashMap<>();
+            for (var namespace : rowsRepository.findNamespaces()) {
+                namespaces.put(namespace, new ChangeSnapshot.NamespaceSnapshot(
+                        rowsRepository.findBoundaries(namespace),
+                        rowsRepository.findAll(namespace)));
+            }
+            return new ChangeSnapshot(seq, namespaces);
+        });
+    }
+
+    public void restore(ChangeSnapshot snapshot) {
+        for (var namespace : rowsRepository.findNamespaces()) {
+            rowsRepository.dropNamespace(namespace);
+        }
+        snapshot.namespaces().forEach((namespace, state) -> {
+            rowsRepository.createNamespace(namespace, state.boundaries());
+            rowsRepository.addAll(namespace, state.rows());
+        });
+    }
+}
@@ -5,7 +5,8 @@ import lombok.Setter;
 import lombok.ToString;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 
 /*
@@ -21,27 +22,71 @@ import java.util.stream.Collectors;
 Поддержка операций. B-дерево поддерживает несколько фундаментальных операций, включая поиск, добавление и удаление элементов.
 */
 
-public class BTree {
+/*
+Порядок задаёт RowOrdering: узлы хранят ключи K (для исходного порядка - сами строки,
+для Collator - строки с готовыми байтами сортировки), все сравнения внутри дерева идут по ключам.
+Наружу дерево принимает и отдаёт строки.
+
+Для визуализации (describe, changedSince) у каждого узла есть постоянный id и version - номер последнего изменения
+узла или его поддерева. Изменение помечает все узлы на пути от корня, поэтому version предка не меньше version потомков,
+а узлы, которых изменение не коснулось, сохраняют и id, и version.
+Номера изменений берутся из последовательности versions: у шардов одного пространства имён она общая
+(её передаёт PartitionedTree), поэтому номер, прочитанный до обхода шардов, покрывает все изменения, видимые в ответе.
+И номера изменений, и id узлов выдаются блоками из общих для процесса источников (BlockSequence):
+у пересозданного дерева они больше прежних, старые id не достаются другим узлам.
+*/
+public class BTree<K> {
     private final int MAX_KEYS_COUNT;
     private final int DEGREE;
+    private final RowOrdering<K> ordering;
 
     private int height = 1;
 
-    public BTree(int degree) {
+    public BTree(int degree, RowOrdering<K> ordering) {
+        this(degree, ordering, BlockSequence.versions());
+    }
+
+    BTree(int degree, RowOrdering<K> ordering, BlockSequence versions) {
         this.DEGREE = degree;
+        this.ordering = ordering;
+        this.versions = versions;
         MAX_KEYS_COUNT = DEGREE * 2 - 1;
+        tombstones = new TreeSet<>(ordering::compare);
     }
 
     private BTreeNode root;
 
+    //Номера изменений, общие для шардов пространства имён. Новый номер берётся один раз за операцию
+    private final BlockSequence versions;
+    private final BlockSequence nodeIds = BlockSequence.nodeIds();
+
+    //Живые узлы дерева по id. Строится обходом дерева при первом обращении по id (hasNode, describe),
+    //до этого узлы никуда не регистрируются. Узел удаляется отсюда, когда выпадает из дерева (forget)
+    private volatile LongMap<BTreeNode> index;
+    //Номер текущего изменения, 0 - текущая операция пока ничего не изменила
+    private long pendingVersion;
+
+    //Число ключей в узлах, включая помеченные удалёнными
+    private int keysCount;
+
+    //Ленивое удаление (markDeleted): ключ остаётся в узле, но попадает сюда и пропускается всеми чтениями.
+    //Физически такие ключи удаляет compact. Каждый ключ отсюда всегда есть в дереве
+    private final NavigableSet<K> tombstones;
+
     @Getter
     @Setter
     @ToString
     public class BTreeNode {
-        private List<String> keys = new ArrayList<>();
-        private List<BTreeNode> children = new ArrayList<>();
+        //Ёмкость сразу под максимум, чтобы списки не перевыделялись по мере заполнения узла.
+        //У листа потомков нет - ArrayList(0) не выделяет массив
+        private List<K> keys;
+        private List<BTreeNode> children;
         private boolean isLeaf;
         private boolean isSplit;
+        private final long id;
+        private long version;
+        //Число живых ключей поддерева, -1 - не посчитано после последнего изменения
+        private int subtreeSize = -1;
 
         //Для корня от 1 до 3 ключей
         //Если корень - лист, то 0 потомков
@@ -58,23 +103,21 @@ public class BTree {
 
         public BTreeNode(boolean isLeaf) {
             this.isLeaf = isLeaf;
+            keys = new ArrayList<>(MAX_KEYS_COUNT);
+            children = new ArrayList<>(isLeaf ? 0 : MAX_KEYS_COUNT + 1);
+            id = nodeIds.next();
+            var nodesById = index;
+            if (nodesById != null) {
+                nodesById.put(id, this);
+            }
+            touch(this);
         }
 
-        public void addKey(String key) {
-            if(!keys.contains(key)) {
-                keys.add(key);
-                keys = keys.stream()
-                        .sorted((s1, s2) -> {
-                            if (s1.length() > s2.length()) {
-                                return 1;
-                            } else {
-                                if (s1.length() < s2.length()) {
-                                    return -1;
-                                }
-                            }
-                            return s1.compareTo(s2);
-                        })
-                        .collect(Collectors.toList());
+        //Вставка на своё место бинарным поиском, повтор не добавляется
+        public void addKey(K key) {
+            int index = findKeyIndex(this, key);
+            if (index == keys.size() || compareKeys(key, keys.get(index)) != 0) {
+                keys.add(index, key);
             }
         }
 
@@ -83,133 +126,294 @@ public class BTree {
         }
     }
 
-    private int compare(String s1, String s2) {
-        if (s1.length() > s2.length()) {
-            return 1;
-        } else {
-            if (s1.length() < s2.length()) {
-                return -1;
-            }
-            return s1.compareTo(s2);
+    private void beginChange() {
+        pendingVersion = 0;
+    }
+
+    //Узел изменился (или изменилось его поддерево): новая версия и пересчёт размера поддерева.
+    //Все узлы одной операции получают один номер
+    private void touch(BTreeNode node) {
+        if (pendingVersion == 0) {
+            pendingVersion = versions.next();
         }
+        node.version = pendingVersion;
+        node.subtreeSize = -1;
     }
 
-    private int lengthCompare(String s1, String s2) {
-        return s1.length() - s2.length();
+    //Для узла на пути спуска: если ниже по пути что-то изменилось, изменилось и его поддерево
+    private boolean touchIfChanged(BTreeNode node, boolean result) {
+        if (pendingVersion != 0) {
+            touch(node);
+        }
+        return result;
     }
 
-    private BTreeNode splitNode(BTreeNode node) {
-        int middleIndex = DEGREE / 2;
-        var left = new BTreeNode(node.isLeaf);
-        var right = new BTreeNode(node.isLeaf);
+    //Помечает путь от корня до узла с ключом - для изменений без перестройки узлов (пометка удаления)
+    private void touchPath(K key) {
+        var node = root;
+        while (node != null) {
+            touch(node);
+            int index = findKeyIndex(node, key);
+            if (index < node.keys.size() && compareKeys(key, node.keys.get(index)) == 0) {
+                return;
+            }
+            node = node.isLeaf ? null : node.children.get(index);
+        }
+    }
 
-        for (int i = 0; i < middleIndex; i++) {
-            left.addKey(node.keys.get(i));
+    //Узел выпал из дерева (его ключи и потомки переехали в другие узлы)
+    private void forget(BTreeNode node) {
+        var nodesById = index;
+        if (nodesById != null) {
+            nodesById.remove(node.id);
         }
-        for (int i = middleIndex + 1; i < node.keys.size(); i++) {
-            right.addKey(node.keys.get(i));
+    }
+
+    private void forgetSubtree(BTreeNode node) {
+        var nodesById = index;
+        if (nodesById != null) {
+            forgetSubtree(node, nodesById);
         }
+    }
 
-        if (!node.isLeaf) {
-            for (int i = 0; i <= middleIndex; i++) {
-                left.children.add(node.children.get(i));
-            }
-            for (int i = middleIndex + 1; i < node.children.size(); i++) {
-                right.children.add(node.children.get(i));
+    private void forgetSubtree(BTreeNode node, LongMap<BTreeNode> nodesById) {
+        nodesById.remove(node.id);
+        for (var child : node.children) {
+            forgetSubtree(child, nodesById);
+        }
+    }
+
+    //Индекс узлов по id. Вызывается под блокировкой чтения, поэтому построение синхронизировано:
+    //параллельные читатели строят его один раз, а писатели видят готовый индекс после освобождения блокировки
+    private LongMap<BTreeNode> index() {
+        var result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    result = new LongMap<>();
+                    if (root != null) {
+                        indexSubtree(root, result);
+                    }
+                    index = result;
+                }
             }
         }
+        return result;
+    }
+
+    private void indexSubtree(BTreeNode node, LongMap<BTreeNode> nodesById) {
+        nodesById.put(node.id, node);
+        for (var child : node.children) {
+            indexSubtree(child, nodesById);
+        }
+    }
+
+    public int compare(String s1, String s2) {
+        return ordering.compare(ordering.key(s1), ordering.key(s2));
+    }
+
+    private int compareKeys(K key1, K key2) {
+        return ordering.compare(key1, key2);
+    }
+
+    //Сортирует строки в порядке дерева, ключ каждой строки вычисляется один раз
+    public void sort(List<String> rows) {
+        List<K> keys = new ArrayList<>(rows.size());
+        for (var row : rows) {
+            keys.add(ordering.key(row));
+        }
+        keys.sort(ordering::compare);
+        for (int i = 0; i < keys.size(); i++) {
+            rows.set(i, ordering.row(keys.get(i)));
+        }
+    }
+
+    //Переносит элементы source начиная с from в конец target.
+    //Поэлементно, а не addAll(subList) - addAll копирует источник во временный массив.
+    //Удаление с хвоста ничего не сдвигает
+    private static <T> void moveTail(List<T> source, int from, List<T> target) {
+        for (int i = from; i < source.size(); i++) {
+            target.add(source.get(i));
+        }
+        for (int i = source.size() - 1; i >= from; i--) {
+            source.remove(i);
+        }
+    }
+
+    //Делит заполненного потомка parent.children[childIndex] (2t - 1 ключей) на месте:
+    //сам узел остаётся левой половиной (t - 1 ключей), правые t - 1 ключей и t потомков
+    //переезжают в новый узел, средний ключ поднимается прямо в parent.
+    //Новый объект на разделение один - правая половина
+    private void splitChild(BTreeNode parent, int childIndex) {
+        var node = parent.children.get(childIndex);
+        int middleIndex = DEGREE - 1;
+        var right = new BTreeNode(node.isLeaf);
         var middleKey = node.keys.get(middleIndex);
-        var parent = new BTreeNode(false);
-        parent.addKey(middleKey);
-        parent.children.add(left);
-        parent.children.add(right);
 
-        return parent;
+        moveTail(node.keys, middleIndex + 1, right.keys);
+        node.keys.remove(middleIndex);
+        if (!node.isLeaf) {
+            moveTail(node.children, middleIndex + 1, right.children);
+        }
+
+        parent.keys.add(childIndex, middleKey);
+        parent.children.add(childIndex + 1, right);
+        touch(node);
+        touch(parent);
     }
 
-    public void add(String key) {
+    //true - ключ добавлен, false - уже был в дереве
+    public boolean add(String row) {
+        var key = ordering.key(row);
+        beginChange();
+        if (!tombstones.isEmpty() && tombstones.remove(key)) {
+            //Ключ помечен удалённым, но ещё лежит в узле - достаточно снять пометку
+            touchPath(key);
+            return true;
+        }
         if (root == null) {
             root = new BTreeNode(true);
             root.addKey(key);
-            return;
+            keysCount++;
+            return true;
         }
 
         if (root.isCrowded()) {
             BTreeNode newRoot = new BTreeNode(false);
             newRoot.children.add(root);
+            splitChild(newRoot, 0);
             root = newRoot;
-            root = splitNode(root.children.get(0));
             height++;
         }
-        addRecursive(key, root);
+        boolean added = addRecursive(key, root);
+        if (added) {
+            keysCount++;
+        }
+        return added;
     }
 
-    private void addRecursive(String key, BTreeNode node) {
-        if (node.isLeaf) {
-            node.addKey(key);
-            return;
+    //Проверка на повтор совмещена со спуском: ключ ищется в каждом узле пути, в том числе во внутренних
+    private boolean addRecursive(K key, BTreeNode node) {
+        int childIndex = findKeyIndex(node, key);
+        if (childIndex < node.keys.size() && compareKeys(key, node.keys.get(childIndex)) == 0) {
+            return false;
         }
-
-        int childIndex = 0;
-        while (childIndex < node.keys.size() && compare(key, node.keys.get(childIndex)) > 0) {
-            childIndex++;
+        if (node.isLeaf) {
+            node.keys.add(childIndex, key);
+            touch(node);
+            return true;
         }
 
         BTreeNode child = node.children.get(childIndex);
 
         if (child.isCrowded()) {
-            BTreeNode splitResult = splitNode(child);
-            node.addKey(splitResult.keys.get(0));
-            node.children.remove(childIndex);
-            node.children.addAll(childIndex, splitResult.children);
-            if (compare(key, splitResult.keys.get(0)) > 0) {
+            splitChild(node, childIndex);
+            int order = compareKeys(key, node.keys.get(childIndex));
+            if (order == 0) {
+                return false;
+            }
+            if (order > 0) {
                 childIndex++;
             }
             child = node.children.get(childIndex);
         }
 
-        addRecursive(key, child);
+        return touchIfChanged(node, addRecursive(key, child));
+    }
+
+    //true - ключ был в дереве и удалён
+    public boolean remove(String row) {
+        var key = ordering.key(row);
+        beginChange();
+        boolean wasDeleted = !tombstones.isEmpty() && tombstones.remove(key);
+        return removePhysically(key) && !wasDeleted;
     }
 
-    public void remove(String key) {
+    private boolean removePhysically(K key) {
         if (root == null) {
-            return;
+            return false;
         }
 
-        removeRecursive(key, root);
+        boolean removed = removeRecursive(key, root);
 
         if (root.keys.isEmpty() && !root.isLeaf) {
+            forget(root);
             root = root.children.get(0);
             height--;
         }
+        if (removed) {
+            keysCount--;
+        }
+        return removed;
     }
 
-    private void removeRecursive(String key, BTreeNode node) {
+    //Ленивое удаление: ключ только помечается, дерево не перестраивается.
+    //true - ключ был в дереве (и не был уже помечен)
+    public boolean markDeleted(String row) {
+        var key = ordering.key(row);
+        if (!exists(key)) {
+            return false;
+        }
+        beginChange();
+        tombstones.add(key);
+        touchPath(key);
+        return true;
+    }
+
+    //Физически удаляет до limit помеченных ключей, с обычной перебалансировкой узлов.
+    //Возвращает число удалённых
+    public int compact(int limit) {
+        int removed = 0;
+        beginChange();
+        while (removed < limit && !tombstones.isEmpty()) {
+            removePhysically(tombstones.pollFirst());
+            removed++;
+        }
+        return removed;
+    }
+
+    public int getTombstonesCount() {
+        return tombstones.size();
+    }
+
+    //Число ключей без помеченных удалёнными
+    public int size() {
+        return keysCount - tombstones.size();
+    }
+
+    private boolean isLive(K key) {
+        return tombstones.isEmpty() || !tombstones.contains(key);
+    }
+
+    private boolean removeRecursive(K key, BTreeNode node) {
         int keyIndex = findKeyIndex(node, key);
 
-        if (keyIndex < node.keys.size() && compare(key, node.keys.get(keyIndex)) == 0) {
+        if (keyIndex < node.keys.size() && compareKeys(key, node.keys.get(keyIndex)) == 0) {
             if (node.isLeaf) {
                 node.keys.remove(keyIndex);
+                touch(node);
+                return true;
             } else {
                 BTreeNode leftChild = node.children.get(keyIndex);
                 BTreeNode rightChild = node.children.get(keyIndex + 1);
 
                 if (leftChild.keys.size() >= DEGREE) {
-                    String predecessor = getPredecessor(leftChild);
+                    K predecessor = getPredecessor(leftChild);
                     node.keys.set(keyIndex, predecessor);
-                    removeRecursive(predecessor, leftChild);
+                    return touchIfChanged(node, removeRecursive(predecessor, leftChild));
                 } else if (rightChild.keys.size() >= DEGREE) {
-                    String successor = getSuccessor(rightChild);
+                    K successor = getSuccessor(rightChild);
                     node.keys.set(keyIndex, successor);
-                    removeRecursive(successor, rightChild);
+                    return touchIfChanged(node, removeRecursive(successor, rightChild));
                 } else {
                     mergeNodes(node, keyIndex, leftChild, rightChild);
-                    removeRecursive(key, leftChild);
+                    return touchIfChanged(node, removeRecursive(key, leftChild));
                 }
             }
         } else {
             if (node.isLeaf) {
-                return;
+                return false;
             }
 
             boolean isLastChild = (keyIndex == node.children.size() - 1);
@@ -233,154 +437,470 @@ public class BTree {
                 }
             }
 
-            removeRecursive(key, child);
+            return touchIfChanged(node, removeRecursive(key, child));
         }
     }
 
 // Вспомогательные методы
 
-    private int findKeyIndex(BTreeNode node, String key) {
-        int index = 0;
-        while (index < node.keys.size() && compare(key, node.keys.get(index)) > 0) {
-            index++;
+    //Первый ключ узла, не меньший key (бинарный поиск)
+    private int findKeyIndex(BTreeNode node, K key) {
+        int low = 0;
+        int high = node.keys.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareKeys(key, node.keys.get(middle)) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
         }
-        return index;
+        return low;
     }
 
-    private String getPredecessor(BTreeNode node) {
+    private K getPredecessor(BTreeNode node) {
         while (!node.isLeaf) {
             node = node.children.get(node.children.size() - 1);
         }
         return node.keys.get(node.keys.size() - 1);
     }
 
-    private String getSuccessor(BTreeNode node) {
+    private K getSuccessor(BTreeNode node) {
         while (!node.isLeaf) {
             node = node.children.get(0);
         }
         return node.keys.get(0);
     }
 
+    //Освобождает count мест в начале списка: один проход сдвига вместо count вставок add(0, ...).
+    //Ёмкость узла рассчитана на максимум, поэтому add(null) массив не перевыделяет
+    private static <T> void openFront(List<T> list, int count) {
+        int size = list.size();
+        for (int i = 0; i < count; i++) {
+            list.add(null);
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            list.set(i + count, list.get(i));
+        }
+    }
+
+    //Убирает count первых элементов одним проходом сдвига, хвост удаляется с конца
+    private static <T> void closeFront(List<T> list, int count) {
+        int size = list.size();
+        for (int i = count; i < size; i++) {
+            list.set(i - count, list.get(i));
+        }
+        for (int i = size - 1; i >= size - count; i--) {
+            list.remove(i);
+        }
+    }
+
+    //Сколько ключей забрать у соседа: половину разницы, но не меньше одного.
+    //После такого заимствования следующие удаления из child обходятся без перестройки
+    private int borrowCount(BTreeNode from, BTreeNode to) {
+        return Math.max(1, (from.keys.size() - to.keys.size()) / 2);
+    }
+
+    //child получает разделитель и count - 1 последних ключей левого соседа (и count его последних потомков),
+    //новым разделителем становится ключ соседа перед ними
     private void borrowFromLeft(BTreeNode parent, int parentKeyIndex, BTreeNode leftSibling, BTreeNode child) {
-        child.keys.add(0, parent.keys.get(parentKeyIndex));
-        parent.keys.set(parentKeyIndex, leftSibling.keys.remove(leftSibling.keys.size() - 1));
+        int count = borrowCount(leftSibling, child);
+        int from = leftSibling.keys.size() - count;
+        openFront(child.keys, count);
+        for (int i = 1; i < count; i++) {
+            child.keys.set(i - 1, leftSibling.keys.get(from + i));
+        }
+        child.keys.set(count - 1, parent.keys.get(parentKeyIndex));
+        parent.keys.set(parentKeyIndex, leftSibling.keys.get(from));
+        for (int i = leftSibling.keys.size() - 1; i >= from; i--) {
+            leftSibling.keys.remove(i);
+        }
         if (!child.isLeaf) {
-            child.children.add(0, leftSibling.children.remove(leftSibling.children.size() - 1));
+            int childrenFrom = leftSibling.children.size() - count;
+            openFront(child.children, count);
+            for (int i = 0; i < count; i++) {
+                child.children.set(i, leftSibling.children.get(childrenFrom + i));
+            }
+            for (int i = leftSibling.children.size() - 1; i >= childrenFrom; i--) {
+                leftSibling.children.remove(i);
+            }
         }
+        touch(parent);
+        touch(leftSibling);
+        touch(child);
     }
 
+    //child получает разделитель и count - 1 первых ключей правого соседа (и count его первых потомков),
+    //новым разделителем становится следующий ключ соседа
     private void borrowFromRight(BTreeNode parent, int parentKeyIndex, BTreeNode child, BTreeNode rightSibling) {
+        int count = borrowCount(rightSibling, child);
         child.keys.add(parent.keys.get(parentKeyIndex));
-
-        parent.keys.set(parentKeyIndex, rightSibling.keys.remove(0));
-
+        for (int i = 0; i < count - 1; i++) {
+            child.keys.add(rightSibling.keys.get(i));
+        }
+        parent.keys.set(parentKeyIndex, rightSibling.keys.get(count - 1));
+        closeFront(rightSibling.keys, count);
         if (!child.isLeaf) {
-            child.children.add(rightSibling.children.remove(0));
+            for (int i = 0; i < count; i++) {
+                child.children.add(rightSibling.children.get(i));
+            }
+            closeFront(rightSibling.children, count);
         }
+        touch(parent);
+        touch(child);
+        touch(rightSibling);
     }
 
+    //Правый узел после склейки выбрасывается, поэтому его ключи и потомки просто дописываются к левому:
+    //в left (t - 1 + 1 + t - 1 = 2t - 1 ключей) место уже есть, массивы не перевыделяются
     private void mergeNodes(BTreeNode parent, int parentKeyIndex, BTreeNode left, BTreeNode right) {
         left.keys.add(parent.keys.remove(parentKeyIndex));
 
-        left.keys.addAll(right.keys);
+        for (int i = 0; i < right.keys.size(); i++) {
+            left.keys.add(right.keys.get(i));
+        }
         if (!left.isLeaf) {
-            left.children.addAll(right.children);
+            for (int i = 0; i < right.children.size(); i++) {
+                left.children.add(right.children.get(i));
+            }
         }
 
         parent.children.remove(parentKeyIndex + 1);
+        forget(right);
+        touch(parent);
+        touch(left);
     }
 
 
 
-    private void findIfLessThan(String string, BTreeNode node, List<String> list) {
-        for (var str : node.keys) {
-            if (compare(str, string) < 0) {
-                list.add(str);
-            }
+    //Фрагмент дерева при разрезании и склейке: корень и высота (0 - пустое дерево, 1 - лист).
+    //Не record: record статичен, а BTreeNode зависит от K
+    private class Fragment {
+        private final BTreeNode node;
+        private final int height;
+
+        private Fragment(BTreeNode node, int height) {
+            this.node = node;
+            this.height = height;
         }
+    }
+
+    private final Fragment EMPTY = new Fragment(null, 0);
+
+    //Результат разрезания: ключи меньше и больше ключа разреза
+    private class Halves {
+        private final Fragment left;
+        private final Fragment right;
+
+        private Halves(Fragment left, Fragment right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private int computeHeight() {
+        int result = 0;
+        for (var node = root; node != null; node = node.isLeaf ? null : node.children.get(0)) {
+            result++;
+        }
+        return result;
+    }
+
+    private int size(BTreeNode node) {
+        int result = node.keys.size();
         for (var child : node.children) {
-            findIfLessThan(string, child, list);
+            result += size(child);
         }
+        return result;
     }
 
-    public List<String> findIfLessThan(String string) {
-        List<String> rows = new ArrayList<>();
-        if (root != null) {
-            findIfLessThan(string, root, rows);
+    //Ключи [from, to) узла и потомки между ними как самостоятельное дерево
+    private Fragment fragment(BTreeNode node, int from, int to, int height) {
+        if (from == to) {
+            return node.isLeaf ? EMPTY : new Fragment(node.children.get(from), height - 1);
         }
-        return rows;
+        var part = new BTreeNode(node.isLeaf);
+        part.keys.addAll(node.keys.subList(from, to));
+        if (!node.isLeaf) {
+            part.children.addAll(node.children.subList(from, to + 1));
+        }
+        return new Fragment(part, height);
+    }
+
+    //Разрезает дерево на ключи меньше key и больше key, found[0] - был ли сам key в дереве.
+    //Целые поддеревья по обе стороны пути поиска переходят в результат без обхода, поэтому O(log n)
+    private Halves split(BTreeNode node, int height, K key, boolean[] found) {
+        found[0] = false;
+        if (node == null) {
+            return new Halves(EMPTY, EMPTY);
+        }
+        //Узел на пути разреза заменяется новыми фрагментами
+        forget(node);
+        int keysCount = node.keys.size();
+        int index = findKeyIndex(node, key);
+        if (index < keysCount && compareKeys(key, node.keys.get(index)) == 0) {
+            found[0] = true;
+            return new Halves(fragment(node, 0, index, height), fragment(node, index + 1, keysCount, height));
+        }
+        if (node.isLeaf) {
+            return new Halves(fragment(node, 0, index, height), fragment(node, index, keysCount, height));
+        }
+        var parts = split(node.children.get(index), height - 1, key, found);
+        var left = index == 0
+                ? parts.left
+                : join(fragment(node, 0, index - 1, height), node.keys.get(index - 1), parts.left);
+        var right = index == keysCount
+                ? parts.right
+                : join(parts.right, node.keys.get(index), fragment(node, index + 1, keysCount, height));
+        return new Halves(left, right);
     }
 
+    //Склеивает деревья, все ключи left < separator < все ключи right.
+    //Низкое дерево подвешивается к краю высокого на своей высоте, переполнение уходит вверх как при вставке
+    private Fragment join(Fragment left, K separator, Fragment right) {
+        if (left.height == 0) {
+            left = new Fragment(new BTreeNode(true), 1);
+        }
+        if (right.height == 0) {
+            right = new Fragment(new BTreeNode(true), 1);
+        }
+        if (left.height >= right.height) {
+            return joinRight(left.node, left.height, separator, right);
+        }
+        return joinLeft(left, separator, right.node, right.height);
+    }
 
-    private void findIfMoreThan(String string, BTreeNode node, List<String> list) {
-        for (var str : node.keys) {
-            if (compare(str, string) > 0) {
-                list.add(str);
-            }
+    private Fragment joinRight(BTreeNode left, int height, K separator, Fragment right) {
+        if (height == right.height) {
+            return mergeAndSplit(left, separator, right.node, height);
         }
-        for (var child : node.children) {
-            findIfMoreThan(string, child, list);
+        int lastIndex = left.children.size() - 1;
+        var joined = joinRight(left.children.get(lastIndex), height - 1, separator, right);
+        touch(left);
+        if (joined.height == height - 1) {
+            left.children.set(lastIndex, joined.node);
+            return new Fragment(left, height);
         }
+        left.children.remove(lastIndex);
+        left.keys.add(joined.node.keys.get(0));
+        left.children.addAll(joined.node.children);
+        forget(joined.node);
+        return splitIfOverflow(left, height);
     }
 
-    public List<String> findIfMoreThan(String string) {
-        List<String> rows = new ArrayList<>();
-        if (root != null) {
-            findIfMoreThan(string, root, rows);
+    private Fragment joinLeft(Fragment left, K separator, BTreeNode right, int height) {
+        if (height == left.height) {
+            return mergeAndSplit(left.node, separator, right, height);
         }
-        return rows;
+        var joined = joinLeft(left, separator, right.children.get(0), height - 1);
+        touch(right);
+        if (joined.height == height - 1) {
+            right.children.set(0, joined.node);
+            return new Fragment(right, height);
+        }
+        right.children.remove(0);
+        right.keys.add(0, joined.node.keys.get(0));
+        right.children.addAll(0, joined.node.children);
+        forget(joined.node);
+        return splitIfOverflow(right, height);
     }
 
+    private Fragment mergeAndSplit(BTreeNode left, K separator, BTreeNode right, int height) {
+        left.keys.add(separator);
+        left.keys.addAll(right.keys);
+        left.children.addAll(right.children);
+        forget(right);
+        touch(left);
+        return splitIfOverflow(left, height);
+    }
 
-    private void findIfEqualLength(String string, BTreeNode node, List<String> list) {
-        for (var str : node.keys) {
-            if (lengthCompare(str, string) == 0) {
-                list.add(str);
-            }
+    private Fragment splitIfOverflow(BTreeNode node, int height) {
+        if (node.keys.size() <= MAX_KEYS_COUNT) {
+            return new Fragment(node, height);
         }
-        for (var child : node.children) {
-            findIfEqualLength(string, child, list);
+        int middleIndex = node.keys.size() / 2;
+        var right = new BTreeNode(node.isLeaf);
+        var parent = new BTreeNode(false);
+        parent.keys.add(node.keys.get(middleIndex));
+        moveTail(node.keys, middleIndex + 1, right.keys);
+        node.keys.remove(middleIndex);
+        if (!node.isLeaf) {
+            moveTail(node.children, middleIndex + 1, right.children);
         }
+        touch(node);
+        parent.children.add(node);
+        parent.children.add(right);
+        return new Fragment(parent, height + 1);
     }
 
-    public List<String> findIfEqualLength(String string) {
+    //Склейка без разделителя: разделителем становится наибольший ключ левого дерева
+    private Fragment concat(Fragment left, Fragment right) {
+        if (left.height == 0) {
+            return right;
+        }
+        if (right.height == 0) {
+            return left;
+        }
+        K separator = findLast(left.node);
+        var parts = split(left.node, left.height, separator, new boolean[1]);
+        return join(parts.left, separator, right);
+    }
+
+    //Удаляет ключи строго между from и to (как в findBetween) и возвращает их число.
+    //Дерево разрезается по from и по to, средняя часть отбрасывается целиком,
+    //крайние склеиваются обратно - балансировка один раз за O(log n), а не на каждый ключ
+    public int deleteBetween(String fromRow, String toRow) {
+        var from = ordering.key(fromRow);
+        var to = ordering.key(toRow);
+        if (root == null || root.keys.isEmpty() || compareKeys(from, to) >= 0) {
+            return 0;
+        }
+        beginChange();
+        boolean[] found = new boolean[1];
+        var byFrom = split(root, computeHeight(), from, found);
+        boolean fromFound = found[0];
+        var byTo = split(byFrom.right.node, byFrom.right.height, to, found);
+        boolean toFound = found[0];
+
+        int removed = 0;
+        if (byTo.left.node != null) {
+            removed = size(byTo.left.node);
+            forgetSubtree(byTo.left.node);
+        }
+
+        var right = toFound ? join(EMPTY, to, byTo.right) : byTo.right;
+        var result = fromFound ? join(byFrom.left, from, right) : concat(byFrom.left, right);
+        root = result.node;
+        height = Math.max(result.height, 1);
+        keysCount -= removed;
+        //Помеченные ключи из отброшенной части уже не считались живыми
+        var deleted = tombstones.subSet(from, false, to, false);
+        removed -= deleted.size();
+        deleted.clear();
+        return removed;
+    }
+
+    //Обход по возрастанию только тех поддеревьев, которые пересекаются с диапазоном.
+    //position возвращает < 0, если ключ левее диапазона, > 0 - правее, 0 - внутри
+    private void findInRange(ToIntFunction<K> position, BTreeNode node, List<String> list) {
+        int keysCount = node.keys.size();
+        for (int i = 0; i <= keysCount; i++) {
+            if (!node.isLeaf
+                    && (i == 0 || position.applyAsInt(node.keys.get(i - 1)) <= 0)
+                    && (i == keysCount || position.applyAsInt(node.keys.get(i)) >= 0)) {
+                findInRange(position, node.children.get(i), list);
+            }
+            if (i < keysCount && position.applyAsInt(node.keys.get(i)) == 0 && isLive(node.keys.get(i))) {
+                list.add(ordering.row(node.keys.get(i)));
+            }
+        }
+    }
+
+    private List<String> findInRange(ToIntFunction<K> position) {
         List<String> rows = new ArrayList<>();
         if (root != null) {
-            findIfEqualLength(string, root, rows);
+            findInRange(position, root, rows);
         }
         return rows;
     }
 
-    private void findBetween(String str1, String str2, BTreeNode node, List<String> list) {
-        for (var str : node.keys) {
-            if (compare(str, str1) > 0 && compare(str, str2) < 0) {
-                list.add(str);
-            }
-        }
-        for (var child : node.children) {
-            findBetween(str1, str2, child, list);
+    public List<String> findIfLessThan(String string) {
+        var bound = ordering.key(string);
+        return findInRange(key -> compareKeys(key, bound) < 0 ? 0 : 1);
+    }
+
+    public List<String> findIfMoreThan(String string) {
+        var bound = ordering.key(string);
+        return findInRange(key -> compareKeys(key, bound) > 0 ? 0 : -1);
+    }
+
+    public List<String> findIfEqualLength(String string) {
+        if (ordering.isLengthFirst()) {
+            return findInRange(key -> Integer.signum(ordering.row(key).length() - string.length()));
         }
+        //В порядке не по длине строки одной длины разбросаны по всему дереву - только полный обход
+        List<String> rows = new ArrayList<>();
+        forEach(row -> {
+            if (row.length() == string.length()) {
+                rows.add(row);
+            }
+        });
+        return rows;
     }
 
     public List<String> findBetween(String str1, String str2) {
+        var key1 = ordering.key(str1);
+        var key2 = ordering.key(str2);
+        return findInRange(key -> {
+            if (compareKeys(key, key1) <= 0) {
+                return -1;
+            }
+            return compareKeys(key, key2) >= 0 ? 1 : 0;
+        });
+    }
+
+
+    //Ключи больше after по возрастанию, не более limit штук (after == null - с начала дерева).
+    //Курсор постранично: следующая страница запрашивается от последнего ключа предыдущей
+    private boolean findAfter(K after, int limit, BTreeNode node, List<String> list) {
+        int keysCount = node.keys.size();
+        for (int i = 0; i <= keysCount; i++) {
+            boolean keyIsAfter = i < keysCount && (after == null || compareKeys(node.keys.get(i), after) > 0);
+            if (!node.isLeaf && (i == keysCount || keyIsAfter)
+                    && findAfter(after, limit, node.children.get(i), list)) {
+                return true;
+            }
+            if (keyIsAfter && isLive(node.keys.get(i))) {
+                list.add(ordering.row(node.keys.get(i)));
+                if (list.size() >= limit) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public List<String> findAfter(String after, int limit) {
         List<String> rows = new ArrayList<>();
-        if (root != null) {
-            findBetween(str1, str2, root, rows);
+        if (root != null && limit > 0) {
+            findAfter(after == null ? null : ordering.key(after), limit, root, rows);
         }
         return rows;
     }
 
+    //Первый и последний ключи поддерева, пропуская помеченные удалёнными; null - живых ключей нет.
+    //Без пометок это спуск по левому (правому) краю
+    private K findFirstLive(BTreeNode node) {
+        for (int i = 0; i <= node.keys.size(); i++) {
+            if (!node.isLeaf) {
+                var key = findFirstLive(node.children.get(i));
+                if (key != null) {
+                    return key;
+                }
+            }
+            if (i < node.keys.size() && isLive(node.keys.get(i))) {
+                return node.keys.get(i);
+            }
+        }
+        return null;
+    }
 
-
-    private String findFirst(BTreeNode node){
-        if(node.isLeaf){
-            return node.keys.get(0);
-        }else{
-            return findFirst(node.children.get(0));
+    private K findLastLive(BTreeNode node) {
+        for (int i = node.keys.size(); i >= 0; i--) {
+            if (!node.isLeaf) {
+                var key = findLastLive(node.children.get(i));
+                if (key != null) {
+                    return key;
+                }
+            }
+            if (i > 0 && isLive(node.keys.get(i - 1))) {
+                return node.keys.get(i - 1);
+            }
         }
+        return null;
     }
 
-    private String findLast(BTreeNode node) {
+    private K findLast(BTreeNode node) {
         if(node.isLeaf){
             return node.keys.get(node.keys.size()-1);
         }else{
@@ -390,73 +910,82 @@ public class BTree {
 
     public List<String>findFirstAndLast(){
         List<String> rows = new ArrayList<>();
-        if (root == null) {
+        if (isEmpty()) {
             return rows;
         }
-        rows.add(findFirst(root));
-        rows.add(findLast(root));
+        rows.add(ordering.row(findFirstLive(root)));
+        rows.add(ordering.row(findLastLive(root)));
         return rows;
     }
 
 
-    private void print(BTreeNode node) {
-        if (node.isLeaf) {
-            node.keys.forEach(System.out::println);
-        } else {
-            for (int i = 0; i < node.children.size(); i++) {
-                print(node.children.get(i));
-                if (i < node.keys.size()) {
-                    System.out.println(node.keys.get(i));
-                }
-            }
-        }
-    }
-
     public void print() {
-        print(root);
+        forEach(System.out::println);
     }
 
 
-    private boolean isExists(String str, BTreeNode node) {
-        boolean exists = false;
-        if(node.isLeaf){
-            exists = node.keys.contains(str);
-        }else{
-            for(var child : node.children) {
-                if(child.keys.contains(str)){
-                    return true;
-                }
-                exists =  isExists(str, child);
-                if(exists){
-                    return true;
-                }
-            }
-        }
-        return exists;
+    //Спуск от корня: в каждом узле бинарный поиск, дальше - в единственного подходящего потомка
+    public boolean isExists(String str) {
+        return exists(ordering.key(str));
     }
 
-    public boolean isExists(String str) {
-        if(root==null){
-            return false;
+    private boolean exists(K key) {
+        return isLive(key) && isStored(key);
+    }
+
+    //Ключ лежит в узле дерева, в том числе помеченный удалённым
+    private boolean isStored(K key) {
+        var node = root;
+        while (node != null) {
+            int index = findKeyIndex(node, key);
+            if (index < node.keys.size() && compareKeys(key, node.keys.get(index)) == 0) {
+                return true;
+            }
+            node = node.isLeaf ? null : node.children.get(index);
         }
-        return isExists(str,root);
+        return false;
     }
 
 
     //В порядке возрастания элементов
     private void getAll(BTreeNode node, List<String>lines) {
         if (node.isLeaf) {
-            lines.addAll(node.keys);
+            for (var key : node.keys) {
+                if (isLive(key)) {
+                    lines.add(ordering.row(key));
+                }
+            }
         } else {
             for (int i = 0; i < node.children.size(); i++) {
                 getAll(node.children.get(i),lines);
-                if (i < node.keys.size()) {
-                    lines.add(node.keys.get(i));
+                if (i < node.keys.size() && isLive(node.keys.get(i))) {
+                    lines.add(ordering.row(node.keys.get(i)));
                 }
             }
         }
     }
 
+    private void forEach(BTreeNode node, Consumer<String> action) {
+        for (int i = 0; i < node.keys.size(); i++) {
+            if (!node.isLeaf) {
+                forEach(node.children.get(i), action);
+            }
+            if (isLive(node.keys.get(i))) {
+                action.accept(ordering.row(node.keys.get(i)));
+            }
+        }
+        if (!node.isLeaf) {
+            forEach(node.children.get(node.keys.size()), action);
+        }
+    }
+
+    //Обход по возрастанию без промежуточного списка
+    public void forEach(Consumer<String> action) {
+        if (root != null) {
+            forEach(root, action);
+        }
+    }
+
     public List<String>getAll(){
         List<String>lines =  new ArrayList<>();
         if(root==null){
@@ -484,8 +1013,8 @@ public class BTree {
     }
 
 
-    private String checkLeftBrother(BTreeNode node){
-        String key = null;
+    private K checkLeftBrother(BTreeNode node){
+        K key = null;
         if(node.keys.size() >= DEGREE){
             key = node.keys.get(node.keys.size()-1);
             node.keys.remove(node.keys.size()-1);
@@ -493,8 +1022,8 @@ public class BTree {
         return key;
     }
 
-    private String checkRightBrother(BTreeNode node){
-        String key = null;
+    private K checkRightBrother(BTreeNode node){
+        K key = null;
         if(node.keys.size() >= DEGREE){
             key = node.keys.get(0);
             node.keys.remove(0);
@@ -503,7 +1032,162 @@ public class BTree {
     }
 
 
+    //Число живых ключей поддерева. Запоминается в узле до его следующего изменения (touch).
+    //Вызывается и под блокировкой чтения: параллельные читатели пишут в subtreeSize одно и то же значение
+    private int subtreeSize(BTreeNode node) {
+        if (node.subtreeSize < 0) {
+            int result = 0;
+            for (var key : node.keys) {
+                if (isLive(key)) {
+                    result++;
+                }
+            }
+            for (var child : node.children) {
+                result += subtreeSize(child);
+            }
+            node.subtreeSize = result;
+        }
+        return node.subtreeSize;
+    }
+
+    private TreeNodeSummary summary(BTreeNode node) {
+        List<String> rows = new ArrayList<>(node.keys.size());
+        for (var key : node.keys) {
+            if (isLive(key)) {
+                rows.add(ordering.row(key));
+            }
+        }
+        var first = findFirstLive(node);
+        var last = findLastLive(node);
+        List<Long> childrenIds = new ArrayList<>(node.children.size());
+        for (var child : node.children) {
+            childrenIds.add(child.id);
+        }
+        return new TreeNodeSummary(node.id, node.version, node.isLeaf, rows,
+                first == null ? null : ordering.row(first), last == null ? null : ordering.row(last),
+                subtreeSize(node), childrenIds);
+    }
+
+    //0 - дерево пустое
+    public long getRootId() {
+        return root == null ? 0 : root.id;
+    }
+
+    public boolean hasNode(long id) {
+        return index().get(id) != null;
+    }
+
+    //Номер последнего изменения дерева (для шарда - всего пространства имён)
+    public long getVersion() {
+        return versions.last();
+    }
+
+    //Узел id и depth уровней под ним (depth = 1 - только сам узел), по уровням сверху вниз.
+    //Не больше limit узлов, возвращает true, если на limit пришлось остановиться.
+    //Корень находится без индекса узлов, индекс нужен только для раскрытия внутренних узлов
+    public boolean describe(long id, int depth, int limit, List<TreeNodeSummary> result) {
+        var node = root != null && root.id == id ? root : index().get(id);
+        if (node == null) {
+            return false;
+        }
+        List<BTreeNode> level = List.of(node);
+        for (int i = 0; i < depth && !level.isEmpty(); i++) {
+            List<BTreeNode> next = new ArrayList<>();
+            for (var current : level) {
+                if (result.size() >= limit) {
+                    return true;
+                }
+                result.add(summary(current));
+                next.addAll(current.children);
+            }
+            level = next;
+        }
+        return false;
+    }
+
+    //Узлы, изменившиеся после версии since, сверху вниз. Версия предка не меньше версий потомков,
+    //поэтому поддерево с версией не больше since пропускается целиком.
+    //Удалённые узлы не перечисляются: клиент узнаёт о них по новым спискам детей изменившихся узлов
+    public boolean changedSince(long since, int limit, List<TreeNodeSummary> result) {
+        return root != null && changedSince(root, since, limit, result);
+    }
+
+    private boolean changedSince(BTreeNode node, long since, int limit, List<TreeNodeSummary> result) {
+        if (node.version <= since) {
+            return false;
+        }
+        if (result.size() >= limit) {
+            return true;
+        }
+        result.add(summary(node));
+        for (var child : node.children) {
+            if (changedSince(child, since, limit, result)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Проверка инвариантов для тестов: ключи строго возрастают, в узле от t - 1 до 2t - 1 ключей (в корне от 1),
+    //у внутреннего узла на одного потомка больше, чем ключей, все листья на глубине height, keysCount совпадает с числом ключей
+    void checkInvariants() {
+        if (root == null || root.keys.isEmpty() && root.isLeaf) {
+            if (keysCount != 0) {
+                throw new IllegalStateException("В пустом дереве keysCount = " + keysCount);
+            }
+            return;
+        }
+        int count = checkInvariants(root, 1, null, null);
+        if (count != keysCount) {
+            throw new IllegalStateException("В дереве %d ключей, keysCount = %d".formatted(count, keysCount));
+        }
+        for (var key : tombstones) {
+            if (!isStored(key)) {
+                throw new IllegalStateException("Помеченного ключа нет в дереве: " + ordering.row(key));
+            }
+        }
+    }
+
+    private int checkInvariants(BTreeNode node, int depth, K lower, K upper) {
+        int size = node.keys.size();
+        if (size > MAX_KEYS_COUNT || size < (node == root ? 1 : DEGREE - 1)) {
+            throw new IllegalStateException("В узле %d ключей при степени %d".formatted(size, DEGREE));
+        }
+        for (int i = 0; i < size; i++) {
+            var key = node.keys.get(i);
+            if (i > 0 && compareKeys(node.keys.get(i - 1), key) >= 0
+                    || lower != null && compareKeys(lower, key) >= 0
+                    || upper != null && compareKeys(key, upper) >= 0) {
+                throw new IllegalStateException("Нарушен порядок ключей у " + ordering.row(key));
+            }
+        }
+        if (node.isLeaf) {
+            if (depth != height || !node.children.isEmpty()) {
+                throw new IllegalStateException("Лист на глубине %d при высоте %d".formatted(depth, height));
+            }
+            return size;
+        }
+        if (node.children.size() != size + 1) {
+            throw new IllegalStateException("У узла %d ключей и %d потомков".formatted(size, node.children.size()));
+        }
+        int count = size;
+        for (int i = 0; i <= size; i++) {
+            count += checkInvariants(node.children.get(i), depth + 1,
+                    i == 0 ? lower : node.keys.get(i - 1), i == size ? upper : node.keys.get(i));
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
     public void clear(){
+        versions.next();
+        index = null;
         root = null;
+        height = 1;
+        keysCount = 0;
+        tombstones.clear();
     }
 }
@@ -1,74 +1,317 @@
 package org.example.btreeweb.repository;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.example.btreeweb.exception.FailedToAddKeyException;
 import org.example.btreeweb.exception.FailedToRemoveKeyException;
+import org.example.btreeweb.exception.InvalidPartitionBoundariesException;
+import org.example.btreeweb.exception.NamespaceAlreadyExistsException;
+import org.example.btreeweb.exception.NamespaceNotFoundException;
+import org.example.btreeweb.exception.TreeNodeNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 @Repository
-@RequiredArgsConstructor
 public class BTreeRowsRepository implements RowsRepository {
 
-    private final BTree bTree;
+    private final int degree;
+    private final RowOrdering<?> ordering;
+    private final RowsChangeListener listener;
+    private final RowsBloomFilter.Config bloom;
+    //rows.delete-mode=tombstone - удаление только помечает ключ, узлы перестраивает TombstoneCompactor
+    private final boolean lazyDelete;
+    private final int compactionSlice;
+
+    //Создание и удаление пространства имён - одна операция над картой, остальные деревья не блокируются
+    private final ConcurrentMap<String, PartitionedTree> namespaces = new ConcurrentHashMap<>();
+    //Создание и удаление (запись) против согласованного снимка набора пространств имён (чтение, withNamespacesLocked).
+    //Изменения строк эту блокировку не берут
+    private final ReadWriteLock namespacesLock = new ReentrantReadWriteLock();
+
+    public BTreeRowsRepository(@Value("${btree.degree:2}") int degree,
+                               @Value("${btree.ordering:length}") String ordering,
+                               @Value("${btree.collation-locale:ru-RU}") String collationLocale,
+                               @Value("${rows.bloom.enabled:true}") boolean bloomEnabled,
+                               @Value("${rows.bloom.initial-capacity:1024}") int bloomInitialCapacity,
+                               @Value("${rows.bloom.false-positive-rate:0.01}") double bloomFalsePositiveRate,
+                               @Value("${rows.delete-mode:eager}") String deleteMode,
+                               @Value("${rows.tombstones.compaction-slice:64}") int compactionSlice,
+                               List<RowsChangeListener> listeners, MeterRegistry meterRegistry) {
+        this.degree = degree;
+        this.ordering = ordering(ordering, collationLocale);
+        this.lazyDelete = "tombstone".equals(deleteMode);
+        this.compactionSlice = compactionSlice;
+        this.listener = (type, namespace, rows) -> listeners.forEach(l -> l.onChange(type, namespace, rows));
+        this.bloom = bloomEnabled
+                ? new RowsBloomFilter.Config(bloomInitialCapacity, bloomFalsePositiveRate, new RowsBloomFilter.Stats())
+                : null;
+        if (bloom != null) {
+            registerBloomMetrics(bloom.stats(), meterRegistry);
+        }
+        if (lazyDelete) {
+            registerTombstoneMetrics(meterRegistry);
+        }
+        namespaces.put(DEFAULT_NAMESPACE,
+                new PartitionedTree(DEFAULT_NAMESPACE, degree, this.ordering, List.of(), listener, bloom, lazyDelete));
+    }
+
+    private static RowOrdering<?> ordering(String name, String collationLocale) {
+        return switch (name) {
+            case "length" -> LengthFirstOrdering.INSTANCE;
+            case "collator" -> new CollatorOrdering(Locale.forLanguageTag(collationLocale));
+            default -> throw new IllegalArgumentException("Неизвестный порядок строк btree.ordering=" + name);
+        };
+    }
+
+    private void registerTombstoneMetrics(MeterRegistry meterRegistry) {
+        Gauge.builder("btree.tombstones", this, BTreeRowsRepository::tombstonesCount)
+                .register(meterRegistry);
+        //Доля помеченных среди всех ключей в узлах
+        Gauge.builder("btree.tombstones.ratio", this, repository -> {
+            double tombstones = repository.tombstonesCount();
+            double total = tombstones + repository.namespaces.values().stream().mapToLong(PartitionedTree::size).sum();
+            return total == 0 ? 0 : tombstones / total;
+        }).register(meterRegistry);
+    }
+
+    private double tombstonesCount() {
+        return namespaces.values().stream().mapToLong(PartitionedTree::getTombstonesCount).sum();
+    }
+
+    private static void registerBloomMetrics(RowsBloomFilter.Stats stats, MeterRegistry meterRegistry) {
+        FunctionCounter.builder("btree.bloom.lookups", stats, RowsBloomFilter.Stats::getNegatives)
+                .tag("result", "negative")
+                .register(meterRegistry);
+        FunctionCounter.builder("btree.bloom.lookups", stats, RowsBloomFilter.Stats::getTruePositives)
+                .tag("result", "true_positive")
+                .register(meterRegistry);
+        FunctionCounter.builder("btree.bloom.lookups", stats, RowsBloomFilter.Stats::getFalsePositives)
+                .tag("result", "false_positive")
+                .register(meterRegistry);
+        FunctionCounter.builder("btree.bloom.rebuilds", stats, RowsBloomFilter.Stats::getRebuilds)
+                .register(meterRegistry);
+        Gauge.builder("btree.bloom.false.positive.rate", stats, RowsBloomFilter.Stats::falsePositiveRate)
+                .register(meterRegistry);
+        Gauge.builder("btree.bloom.saved.lookups.ratio", stats, RowsBloomFilter.Stats::savedLookupsRatio)
+                .register(meterRegistry);
+    }
+
+    private PartitionedTree tree(String namespace) {
+        var tree = namespaces.get(namespace);
+        if (tree == null) {
+            throw new NamespaceNotFoundException("Пространство имён %s не найдено".formatted(namespace));
+        }
+        return tree;
+    }
 
     @Override
-    public void add(String row) {
+    public void createNamespace(String namespace, List<String> boundaries) {
+        PartitionedTree tree;
         try {
-            bTree.add(row);
+            tree = new PartitionedTree(namespace, degree, ordering, boundaries, listener, bloom, lazyDelete);
+        } catch (Exception e) {
+            throw new InvalidPartitionBoundariesException(e.getMessage());
+        }
+        //Событие пишется внутри compute: дерево станет видно другим потокам только после него,
+        //поэтому в журнале создание всегда идёт раньше изменений нового пространства
+        boolean[] created = new boolean[1];
+        namespacesLock.writeLock().lock();
+        try {
+            namespaces.computeIfAbsent(namespace, key -> {
+                created[0] = true;
+                listener.onChange(ChangeEvent.Type.CREATE_NAMESPACE, namespace, tree.getBoundaries());
+                return tree;
+            });
+        } finally {
+            namespacesLock.writeLock().unlock();
+        }
+        if (!created[0]) {
+            throw new NamespaceAlreadyExistsException("Пространство имён %s уже существует".formatted(namespace));
+        }
+    }
+
+    @Override
+    public void dropNamespace(String namespace) {
+        boolean[] dropped = new boolean[1];
+        namespacesLock.writeLock().lock();
+        try {
+            namespaces.computeIfPresent(namespace, (key, tree) -> {
+                dropped[0] = true;
+                listener.onChange(ChangeEvent.Type.DROP_NAMESPACE, namespace, List.of());
+                return null;
+            });
+        } finally {
+            namespacesLock.writeLock().unlock();
+        }
+        if (!dropped[0]) {
+            throw new NamespaceNotFoundException("Пространство имён %s не найдено".formatted(namespace));
+        }
+    }
+
+    @Override
+    public <T> T withNamespacesLocked(Supplier<T> action) {
+        namespacesLock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            namespacesLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> findNamespaces() {
+        return new ArrayList<>(namespaces.keySet());
+    }
+
+    @Override
+    public List<String> findBoundaries(String namespace) {
+        return tree(namespace).getBoundaries();
+    }
+
+    @Override
+    public void add(String namespace, String row) {
+        var tree = tree(namespace);
+        try {
+            tree.add(row);
         }catch (Exception e){
             throw new FailedToAddKeyException(e.getMessage());
         }
     }
 
     @Override
-    public void remove(String row) {
+    public void remove(String namespace, String row) {
+        var tree = tree(namespace);
         try{
-            bTree.remove(row);
+            tree.remove(row);
         }catch (Exception exception) {
             throw new FailedToRemoveKeyException(exception.getMessage());
         }
     }
 
     @Override
-    public void clear() {
-        bTree.clear();
+    public void addAll(String namespace, List<String> rows) {
+        var tree = tree(namespace);
+        try {
+            tree.addAll(rows);
+        }catch (Exception e){
+            throw new FailedToAddKeyException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void removeAll(String namespace, List<String> rows) {
+        var tree = tree(namespace);
+        try{
+            tree.removeAll(rows);
+        }catch (Exception exception) {
+            throw new FailedToRemoveKeyException(exception.getMessage());
+        }
+    }
+
+    @Override
+    public int deleteBetween(String namespace, String str1, String str2) {
+        var tree = tree(namespace);
+        try{
+            return tree.deleteBetween(str1, str2);
+        }catch (Exception exception) {
+            throw new FailedToRemoveKeyException(exception.getMessage());
+        }
+    }
+
+    @Override
+    public void clear(String namespace) {
+        tree(namespace).clear();
+    }
+
+    @Override
+    public boolean contains(String namespace, String row) {
+        return tree(namespace).contains(row);
     }
 
+
     @Override
-    public boolean contains(String row) {
-        return bTree.isExists(row);
+    public List<String> findAll(String namespace) {
+        return tree(namespace).findAll();
     }
 
+    @Override
+    public List<String> findBetween(String namespace, String str1, String str2) {
+        return tree(namespace).findBetween(str1, str2);
+    }
 
     @Override
-    public List<String> findAll() {
-        return bTree.getAll();
+    public List<String> findFirstAndLast(String namespace) {
+        return tree(namespace).findFirstAndLast();
     }
 
     @Override
-    public List<String> findBetween(String str1, String str2) {
-        return bTree.findBetween(str1, str2);
+    public List<String> findAfter(String namespace, String after, int limit) {
+        return tree(namespace).findAfter(after, limit);
     }
 
     @Override
-    public List<String> findFirstAndLast() {
-        return bTree.findFirstAndLast();
+    public RowOrdering<?> rowOrdering(String namespace) {
+        return tree(namespace).getOrdering();
     }
 
     @Override
-    public List<String> findIfEqualLength(String string) {
-        return bTree.findIfEqualLength(string);
+    public String ordering(String namespace) {
+        return tree(namespace).getOrdering().name();
     }
 
     @Override
-    public List<String> findIfLessThan(String string) {
-        return bTree.findIfLessThan(string);
+    public List<String> findIfEqualLength(String namespace, String string) {
+        return tree(namespace).findIfEqualLength(string);
     }
 
     @Override
-    public List<String> findIfMoreThan(String string) {
-        return bTree.findIfMoreThan(string);
+    public List<String> findIfLessThan(String namespace, String string) {
+        return tree(namespace).findIfLessThan(string);
+    }
+
+    @Override
+    public List<String> findIfMoreThan(String namespace, String string) {
+        return tree(namespace).findIfMoreThan(string);
+    }
+
+    @Override
+    public TreeStructure findStructure(String namespace, int depth, int limit) {
+        return tree(namespace).structure(depth, limit);
+    }
+
+    @Override
+    public TreeStructure findNodeChildren(String namespace, long id, int depth, int limit) {
+        var structure = tree(namespace).expand(id, depth, limit);
+        if (structure == null) {
+            throw new TreeNodeNotFoundException("Узел %d не найден в пространстве имён %s".formatted(id, namespace));
+        }
+        return structure;
+    }
+
+    @Override
+    public TreeStructure findStructureChanges(String namespace, long since, int limit) {
+        return tree(namespace).changedSince(since, limit);
+    }
+
+    @Override
+    public int compactTombstones(long deadline) {
+        int removed = 0;
+        for (var tree : namespaces.values()) {
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+            removed += tree.compact(deadline, compactionSlice);
+        }
+        return removed;
     }
 }
@@ -0,0 +1,65 @@
+package org.example.btreeweb.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Возрастающие номера, которые берутся у общего для процесса источника блоками по BLOCK.
+Номера разных последовательностей не пересекаются, а последовательность, созданная позже
+(например, для пересозданного пространства имён или после восстановления из снимка), выдаёт номера больше всех,
+выданных до неё. Поэтому клиент со старым id узла или старой версией не спутает их с новыми.
+Общий источник трогается раз на BLOCK номеров, обычная выдача - одно увеличение счётчика текущего блока.
+*/
+final class BlockSequence {
+
+    static final long BLOCK = 1 << 20;
+
+    private static final AtomicLong VERSION_BLOCKS = new AtomicLong();
+    private static final AtomicLong NODE_ID_BLOCKS = new AtomicLong();
+
+    //Выдаются номера из (start, end), last - последний выданный
+    private record Block(long end, AtomicLong last) {
+    }
+
+    private final AtomicLong source;
+    private volatile Block block;
+
+    private BlockSequence(AtomicLong source) {
+        this.source = source;
+        this.block = allocate();
+    }
+
+    static BlockSequence versions() {
+        return new BlockSequence(VERSION_BLOCKS);
+    }
+
+    static BlockSequence nodeIds() {
+        return new BlockSequence(NODE_ID_BLOCKS);
+    }
+
+    private Block allocate() {
+        long start = source.getAndAdd(BLOCK);
+        return new Block(start + BLOCK, new AtomicLong(start));
+    }
+
+    long next() {
+        while (true) {
+            var current = block;
+            long value = current.last.incrementAndGet();
+            if (value < current.end) {
+                return value;
+            }
+            synchronized (this) {
+                if (block == current) {
+                    block = allocate();
+                }
+            }
+        }
+    }
+
+    //Последний выданный номер: все номера не больше него уже выданы, все следующие будут больше.
+    //Пока блок меняется, счётчик старого блока может уйти за его конец - такие номера не выдаются
+    long last() {
+        var current = block;
+        return Math.min(current.last.get(), current.end - 1);
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.btreeweb.repository;
+
+import java.util.List;
+
+//Изменение пространства имён с порядковым номером из журнала изменений.
+//ADD/REMOVE - rows добавлены/удалены, DELETE_RANGE - удалены ключи строго между rows[0] и rows[1],
+//CREATE_NAMESPACE - rows содержит границы шардов
+public record ChangeEvent(long seq, Type type, String namespace, List<String> rows, long timestamp) {
+
+    public enum Type {
+        ADD, REMOVE, CLEAR, DELETE_RANGE, CREATE_NAMESPACE, DROP_NAMESPACE
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.btreeweb.repository;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+Порядок по правилам языка (java.text.Collator), например для русского ё идёт сразу после е, а не после я.
+Ключ хранит строку вместе с байтами CollationKey, вычисленными один раз при вставке,
+поэтому сравнение в узлах - Arrays.compareUnsigned без обращения к Collator.
+При равных байтах (строки, неразличимые для Collator) порядок решает String.compareTo,
+так что разные строки никогда не считаются одним ключом.
+*/
+public class CollatorOrdering implements RowOrdering<CollatorOrdering.Key> {
+
+    public record Key(String row, byte[] bytes) {
+    }
+
+    private final Locale locale;
+    //getCollationKey у RuleBasedCollator синхронизирован - у каждого потока своя копия
+    private final ThreadLocal<Collator> collator;
+
+    public CollatorOrdering(Locale locale) {
+        this.locale = locale;
+        var prototype = Collator.getInstance(locale);
+        prototype.setStrength(Collator.TERTIARY);
+        this.collator = ThreadLocal.withInitial(() -> (Collator) prototype.clone());
+    }
+
+    @Override
+    public Key key(String row) {
+        return new Key(row, collator.get().getCollationKey(row).toByteArray());
+    }
+
+    @Override
+    public String row(Key key) {
+        return key.row;
+    }
+
+    @Override
+    public int compare(Key key1, Key key2) {
+        int order = Arrays.compareUnsigned(key1.bytes, key2.bytes);
+        return order != 0 ? order : key1.row.compareTo(key2.row);
+    }
+
+    @Override
+    public boolean isLengthFirst() {
+        return false;
+    }
+
+    @Override
+    public String name() {
+        return "collator:" + locale.toLanguageTag();
+    }
+}
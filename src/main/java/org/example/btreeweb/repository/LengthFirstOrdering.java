@@ -0,0 +1,45 @@
+package org.example.btreeweb.repository;
+
+/*
+Исходный порядок дерева: сначала по длине, затем String.compareTo.
+Ключ - сама строка, поэтому узлы хранят строки без обёрток.
+*/
+public class LengthFirstOrdering implements RowOrdering<String> {
+
+    public static final LengthFirstOrdering INSTANCE = new LengthFirstOrdering();
+
+    private LengthFirstOrdering() {
+    }
+
+    @Override
+    public String key(String row) {
+        return row;
+    }
+
+    @Override
+    public String row(String key) {
+        return key;
+    }
+
+    @Override
+    public int compare(String s1, String s2) {
+        if (s1.length() > s2.length()) {
+            return 1;
+        } else {
+            if (s1.length() < s2.length()) {
+                return -1;
+            }
+            return s1.compareTo(s2);
+        }
+    }
+
+    @Override
+    public boolean isLengthFirst() {
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "length";
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.btreeweb.repository;
+
+/*
+Хеш-таблица long -> V с открытой адресацией (линейное пробирование).
+Ключи хранятся в long[], поэтому нет упаковки в Long и объекта на каждую запись, как у HashMap.
+Ключ 0 не допускается - так помечена пустая ячейка. Удаление сдвигает следующие записи цепочки назад,
+без пометок удалённых ячеек.
+*/
+final class LongMap<V> {
+
+    private long[] keys = new long[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    private static int slot(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    void put(long key, V value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == 0) {
+            size++;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int gap = slot(key, mask);
+        while (keys[gap] != key) {
+            if (keys[gap] == 0) {
+                return;
+            }
+            gap = (gap + 1) & mask;
+        }
+        //Запись j переносится в освободившуюся ячейку, если её место по хешу не между gap и j
+        for (int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+        size--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int j = slot(oldKeys[i], mask);
+                while (keys[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
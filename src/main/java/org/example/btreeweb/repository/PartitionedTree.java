@@ -0,0 +1,442 @@
+package org.example.btreeweb.repository;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/*
+Пространство имён, разбитое по диапазонам ключей на несколько B-деревьев (шардов).
+Шард i хранит ключи из [boundaries[i-1], boundaries[i]), у каждого шарда своя блокировка,
+поэтому запись в разные шарды идёт параллельно.
+Каждое изменение передаётся listener под блокировкой своего шарда.
+Если задан bloom, у каждого шарда свой фильтр Блума (RowsBloomFilter), он отсекает contains отсутствующих ключей.
+При lazyDelete удаление только помечает ключ (BTree.markDeleted), а перестройку узлов делает compact в фоне.
+Шарды упорядочены по диапазонам, так что слияние упорядоченных ответов шардов
+сводится к их конкатенации в порядке шардов.
+Структура для визуализации (structure, expand, changedSince) собирается по шардам, каждый - под своей блокировкой чтения.
+Номера изменений у шардов из одной последовательности versions, последний номер читается один раз до первого шарда:
+изменение с меньшим номером к тому моменту уже взяло блокировку своего шарда и будет видно при его чтении,
+а более поздние клиент получит в следующем changedSince.
+*/
+public class PartitionedTree {
+
+    //Границы шардов вместе с их ключами RowOrdering, вычисленными один раз.
+    //Поиск шарда строит ключ строки один раз, а не по два на каждое сравнение с границей
+    private static class Router<K> {
+        private final RowOrdering<K> ordering;
+        private final List<K> boundaries;
+
+        private Router(RowOrdering<K> ordering, List<String> boundaries) {
+            this.ordering = ordering;
+            this.boundaries = new ArrayList<>(boundaries.size());
+            for (var boundary : boundaries) {
+                var key = ordering.key(boundary);
+                if (!this.boundaries.isEmpty() && ordering.compare(this.boundaries.get(this.boundaries.size() - 1), key) >= 0) {
+                    throw new IllegalArgumentException("Границы шардов должны строго возрастать");
+                }
+                this.boundaries.add(key);
+            }
+        }
+
+        //Бинарный поиск шарда, в диапазон которого попадает ключ
+        private int shardIndex(K key) {
+            int low = 0;
+            int high = boundaries.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ordering.compare(key, boundaries.get(middle)) >= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int shardIndex(String row) {
+            return shardIndex(ordering.key(row));
+        }
+
+        //Шарды строк from и to; null - from не меньше to, диапазон между ними пуст
+        private int[] shardRange(String from, String to) {
+            var fromKey = ordering.key(from);
+            var toKey = ordering.key(to);
+            if (ordering.compare(fromKey, toKey) >= 0) {
+                return null;
+            }
+            return new int[]{shardIndex(fromKey), shardIndex(toKey)};
+        }
+    }
+
+    private final String namespace;
+    @Getter
+    private final List<String> boundaries;
+    private final BTree<?>[] shards;
+    @Getter
+    private final RowOrdering<?> ordering;
+    private final Router<?> router;
+    private final ReadWriteLock[] locks;
+    //Номера изменений всех шардов пространства имён
+    private final BlockSequence versions = BlockSequence.versions();
+    private final RowsChangeListener listener;
+    //null - фильтры Блума отключены
+    private final RowsBloomFilter.Config bloom;
+    private final RowsBloomFilter[] filters;
+    private final boolean lazyDelete;
+
+    public PartitionedTree(String namespace, int degree, RowOrdering<?> ordering, List<String> boundaries,
+                           RowsChangeListener listener, RowsBloomFilter.Config bloom, boolean lazyDelete) {
+        this.namespace = namespace;
+        this.ordering = ordering;
+        this.listener = listener;
+        this.bloom = bloom;
+        this.lazyDelete = lazyDelete;
+        this.boundaries = List.copyOf(boundaries);
+        this.router = new Router<>(ordering, boundaries);
+        shards = new BTree<?>[boundaries.size() + 1];
+        locks = new ReadWriteLock[shards.length];
+        filters = new RowsBloomFilter[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new BTree<>(degree, ordering, versions);
+            locks[i] = new ReentrantReadWriteLock();
+            filters[i] = bloom == null ? null : RowsBloomFilter.empty(bloom);
+        }
+    }
+
+    public int getPartitionsCount() {
+        return shards.length;
+    }
+
+    private int shardIndex(String key) {
+        return router.shardIndex(key);
+    }
+
+    private <T> T read(int index, Function<BTree<?>, T> action) {
+        var lock = locks[index].readLock();
+        lock.lock();
+        try {
+            return action.apply(shards[index]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> T write(int index, Function<BTree<?>, T> action) {
+        var lock = locks[index].writeLock();
+        lock.lock();
+        try {
+            return action.apply(shards[index]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Блокирует шарды с from по to включительно (всегда по возрастанию номера, без взаимных блокировок)
+    private <T> T writeAll(int from, int to, Supplier<T> action) {
+        for (int i = from; i <= to; i++) {
+            locks[i].writeLock().lock();
+        }
+        try {
+            return action.get();
+        } finally {
+            for (int i = to; i >= from; i--) {
+                locks[i].writeLock().unlock();
+            }
+        }
+    }
+
+    //Опрашивает шарды с from по to включительно и склеивает их упорядоченные ответы
+    private List<String> collect(int from, int to, Function<BTree<?>, List<String>> query) {
+        List<String> rows = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            rows.addAll(read(i, query));
+        }
+        return rows;
+    }
+
+    //Вызывается под блокировкой записи шарда перед добавлением count ключей (count = 0 - после удалений):
+    //если фильтру не хватает ёмкости или в нём много устаревших битов, он пересобирается
+    private void reserve(int index, int count) {
+        if (bloom != null && filters[index].needsRebuild(count)) {
+            filters[index] = RowsBloomFilter.rebuild(bloom, shards[index], filters[index].size() + count);
+        }
+    }
+
+    private void added(int index, String key) {
+        if (bloom != null) {
+            filters[index].put(key);
+        }
+    }
+
+    private void removed(int index, int count) {
+        if (bloom != null) {
+            filters[index].removed(count);
+            reserve(index, 0);
+        }
+    }
+
+    private void insert(int index, BTree<?> tree, String key) {
+        if (tree.add(key)) {
+            added(index, key);
+        }
+    }
+
+    private boolean delete(BTree<?> tree, String key) {
+        return lazyDelete ? tree.markDeleted(key) : tree.remove(key);
+    }
+
+    public void add(String key) {
+        int index = shardIndex(key);
+        write(index, tree -> {
+            reserve(index, 1);
+            insert(index, tree, key);
+            listener.onChange(ChangeEvent.Type.ADD, namespace, List.of(key));
+            return null;
+        });
+    }
+
+    public void remove(String key) {
+        int index = shardIndex(key);
+        write(index, tree -> {
+            if (delete(tree, key)) {
+                removed(index, 1);
+            }
+            listener.onChange(ChangeEvent.Type.REMOVE, namespace, List.of(key));
+            return null;
+        });
+    }
+
+    public void addAll(List<String> keys) {
+        applySorted(keys, ChangeEvent.Type.ADD);
+    }
+
+    public void removeAll(List<String> keys) {
+        applySorted(keys, ChangeEvent.Type.REMOVE);
+    }
+
+    //Ключи сортируются и раскладываются по шардам, блокировка шарда берётся один раз на всю его серию
+    private void applySorted(List<String> keys, ChangeEvent.Type type) {
+        List<String> sorted = new ArrayList<>(keys);
+        shards[0].sort(sorted);
+        int from = 0;
+        while (from < sorted.size()) {
+            int index = shardIndex(sorted.get(from));
+            int to = from + 1;
+            while (to < sorted.size() && shardIndex(sorted.get(to)) == index) {
+                to++;
+            }
+            var run = sorted.subList(from, to);
+            write(index, tree -> {
+                if (type == ChangeEvent.Type.ADD) {
+                    reserve(index, run.size());
+                    run.forEach(key -> insert(index, tree, key));
+                } else {
+                    int removed = 0;
+                    for (var key : run) {
+                        if (delete(tree, key)) {
+                            removed++;
+                        }
+                    }
+                    removed(index, removed);
+                }
+                listener.onChange(type, namespace, run);
+                return null;
+            });
+            from = to;
+        }
+    }
+
+    public int deleteBetween(String from, String to) {
+        var range = router.shardRange(from, to);
+        if (range == null) {
+            return 0;
+        }
+        int first = range[0];
+        int last = range[1];
+        return writeAll(first, last, () -> {
+            int removed = 0;
+            for (int i = first; i <= last; i++) {
+                int shardRemoved = shards[i].deleteBetween(from, to);
+                removed(i, shardRemoved);
+                removed += shardRemoved;
+            }
+            listener.onChange(ChangeEvent.Type.DELETE_RANGE, namespace, List.of(from, to));
+            return removed;
+        });
+    }
+
+    //Все шарды очищаются под общей блокировкой, чтобы в журнале это было одно событие
+    public void clear() {
+        writeAll(0, shards.length - 1, () -> {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].clear();
+                filters[i] = bloom == null ? null : RowsBloomFilter.empty(bloom);
+            }
+            listener.onChange(ChangeEvent.Type.CLEAR, namespace, List.of());
+            return null;
+        });
+    }
+
+    //Физически удаляет помеченные ключи порциями по slice, каждая порция - под блокировкой своего шарда,
+    //поэтому запись ждёт не дольше одной порции. Останавливается, когда System.nanoTime() дошёл до deadline.
+    //Содержимое дерева не меняется, поэтому событий в журнал нет
+    public int compact(long deadline, int slice) {
+        int removed = 0;
+        for (int i = 0; i < shards.length && System.nanoTime() - deadline < 0; i++) {
+            int portion;
+            do {
+                portion = write(i, tree -> tree.compact(slice));
+                removed += portion;
+            } while (portion == slice && System.nanoTime() - deadline < 0);
+        }
+        return removed;
+    }
+
+    public long getTombstonesCount() {
+        long count = 0;
+        for (int i = 0; i < shards.length; i++) {
+            count += read(i, BTree::getTombstonesCount);
+        }
+        return count;
+    }
+
+    public long size() {
+        long count = 0;
+        for (int i = 0; i < shards.length; i++) {
+            count += read(i, BTree::size);
+        }
+        return count;
+    }
+
+    public boolean contains(String key) {
+        if (key == null) {
+            return false;
+        }
+        int index = shardIndex(key);
+        return read(index, tree -> {
+            if (bloom == null) {
+                return tree.isExists(key);
+            }
+            if (!filters[index].mightContain(key)) {
+                bloom.stats().negatives.increment();
+                return false;
+            }
+            boolean exists = tree.isExists(key);
+            (exists ? bloom.stats().truePositives : bloom.stats().falsePositives).increment();
+            return exists;
+        });
+    }
+
+    public List<String> findAll() {
+        return collect(0, shards.length - 1, BTree::getAll);
+    }
+
+    public List<String> findBetween(String str1, String str2) {
+        var range = router.shardRange(str1, str2);
+        if (range == null) {
+            return new ArrayList<>();
+        }
+        return collect(range[0], range[1], tree -> tree.findBetween(str1, str2));
+    }
+
+    public List<String> findIfLessThan(String string) {
+        return collect(0, shardIndex(string), tree -> tree.findIfLessThan(string));
+    }
+
+    public List<String> findIfMoreThan(String string) {
+        return collect(shardIndex(string), shards.length - 1, tree -> tree.findIfMoreThan(string));
+    }
+
+    public List<String> findIfEqualLength(String string) {
+        return collect(0, shards.length - 1, tree -> tree.findIfEqualLength(string));
+    }
+
+    public List<String> findAfter(String after, int limit) {
+        List<String> rows = new ArrayList<>();
+        for (int i = after == null ? 0 : shardIndex(after); i < shards.length && rows.size() < limit; i++) {
+            int left = limit - rows.size();
+            rows.addAll(read(i, tree -> tree.findAfter(after, left)));
+        }
+        return rows;
+    }
+
+    //Корни шардов и depth уровней под ними, не больше limit узлов.
+    //Версия читается до узлов: изменение между ними клиент просто получит ещё раз в changedSince
+    public TreeStructure structure(int depth, int limit) {
+        long version = versions.last();
+        List<Long> roots = new ArrayList<>();
+        List<TreeNodeSummary> nodes = new ArrayList<>();
+        boolean truncated = false;
+        for (int i = 0; i < shards.length && !truncated; i++) {
+            truncated = read(i, tree -> {
+                if (tree.getRootId() == 0) {
+                    return false;
+                }
+                roots.add(tree.getRootId());
+                return tree.describe(tree.getRootId(), depth, limit, nodes);
+            });
+        }
+        return new TreeStructure(version, roots, nodes, truncated);
+    }
+
+    //Узел id и depth уровней его потомков; null - такого узла уже нет
+    public TreeStructure expand(long id, int depth, int limit) {
+        long version = versions.last();
+        for (int i = 0; i < shards.length; i++) {
+            var structure = read(i, tree -> {
+                if (!tree.hasNode(id)) {
+                    return null;
+                }
+                List<TreeNodeSummary> nodes = new ArrayList<>();
+                boolean truncated = tree.describe(id, depth + 1, limit, nodes);
+                return new TreeStructure(version, List.of(), nodes, truncated);
+            });
+            if (structure != null) {
+                return structure;
+            }
+        }
+        return null;
+    }
+
+    //Узлы, изменившиеся после версии since. Корни возвращаются всегда - по ним клиент замечает
+    //смену корня и опустевшие шарды
+    public TreeStructure changedSince(long since, int limit) {
+        long version = versions.last();
+        List<Long> roots = new ArrayList<>();
+        List<TreeNodeSummary> nodes = new ArrayList<>();
+        boolean truncated = false;
+        for (int i = 0; i < shards.length; i++) {
+            boolean shardTruncated = read(i, tree -> {
+                if (tree.getRootId() != 0) {
+                    roots.add(tree.getRootId());
+                }
+                return tree.changedSince(since, limit, nodes);
+            });
+            truncated = truncated || shardTruncated;
+        }
+        return new TreeStructure(version, roots, nodes, truncated);
+    }
+
+    public List<String> findFirstAndLast() {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < shards.length && rows.isEmpty(); i++) {
+            read(i, tree -> rows.addAll(tree.findFirstAndLast()));
+        }
+        if (rows.isEmpty()) {
+            return rows;
+        }
+        for (int i = shards.length - 1; i >= 0; i--) {
+            var firstAndLast = read(i, BTree::findFirstAndLast);
+            if (!firstAndLast.isEmpty()) {
+                rows.set(1, firstAndLast.get(1));
+                break;
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.btreeweb.repository;
+
+import java.util.function.Predicate;
+
+/*
+Порядок строк в дереве.
+Узлы хранят не сами строки, а ключи K = key(строка) и сравнивают только ключи:
+ключ вычисляется один раз при вставке, а не при каждом сравнении.
+*/
+public interface RowOrdering<K> {
+
+    K key(String row);
+
+    String row(K key);
+
+    int compare(K key1, K key2);
+
+    //true - строки одной длины идут подряд, и findIfEqualLength обходит только их диапазон
+    boolean isLengthFirst();
+
+    //Имя для настроек и клиентов: length или collator:<язык>
+    String name();
+
+    //Проверка "строка меньше bound": ключ bound строится один раз, дальше - по одному ключу на проверяемую строку
+    default Predicate<String> lessThan(String bound) {
+        var boundKey = key(bound);
+        return row -> compare(key(row), boundKey) < 0;
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.btreeweb.repository;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Фильтр Блума перед поиском в шарде: "нет" - точный ответ, и спуск по дереву не нужен,
+"возможно есть" - ключ ищется в дереве как обычно.
+Удалить ключ из фильтра нельзя, поэтому удалённые ключи остаются в нём устаревшими битами
+и на проверке именно удалённого ключа фильтр всегда ошибается. Фильтр пересобирается обходом ключей шарда,
+когда живых и устаревших ключей вместе больше расчётной ёмкости (иначе доля ложных срабатываний
+превысит заданную) или устаревших больше восьмой части ёмкости; пересборка стоит O(ёмкость)
+и случается не чаще чем раз в ёмкость / 8 изменений, так что в среднем это O(1) на изменение.
+Перед пачкой добавлений ёмкость резервируется сразу на всю пачку, поэтому загрузка файла
+пересобирает фильтр шарда не больше одного раза; после очистки шарда фильтр создаётся пустым.
+Фильтр меняется и читается под блокировкой своего шарда.
+*/
+public class RowsBloomFilter {
+
+    public record Config(int initialCapacity, double falsePositiveRate, Stats stats) {
+    }
+
+    //Общая статистика фильтров всех шардов для метрик
+    public static class Stats {
+        //Фильтр ответил "нет" - спуск по дереву сэкономлен
+        final LongAdder negatives = new LongAdder();
+        //Фильтр ответил "возможно", ключ нашёлся
+        final LongAdder truePositives = new LongAdder();
+        //Фильтр ответил "возможно", ключа нет - ложное срабатывание
+        final LongAdder falsePositives = new LongAdder();
+        final LongAdder rebuilds = new LongAdder();
+
+        public long getNegatives() {
+            return negatives.sum();
+        }
+
+        public long getTruePositives() {
+            return truePositives.sum();
+        }
+
+        public long getFalsePositives() {
+            return falsePositives.sum();
+        }
+
+        public long getRebuilds() {
+            return rebuilds.sum();
+        }
+
+        //Доля ложных срабатываний среди отсутствующих ключей
+        public double falsePositiveRate() {
+            long falsePositives = getFalsePositives();
+            long absent = falsePositives + getNegatives();
+            return absent == 0 ? 0 : (double) falsePositives / absent;
+        }
+
+        //Доля проверок, обошедшихся без спуска по дереву
+        public double savedLookupsRatio() {
+            long negatives = getNegatives();
+            long total = negatives + getTruePositives() + getFalsePositives();
+            return total == 0 ? 0 : (double) negatives / total;
+        }
+    }
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final int capacity;
+    private int live;
+    private int stale;
+
+    private RowsBloomFilter(int capacity, double falsePositiveRate) {
+        this.capacity = capacity;
+        //Оптимальные размер m = -n ln p / ln^2 2 и число хешей k = m / n ln 2
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        bits = new long[(int) Math.max(1, (m + 63) >>> 6)];
+        bitCount = bits.length * 64L;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+    }
+
+    public static RowsBloomFilter empty(Config config) {
+        return new RowsBloomFilter(config.initialCapacity(), config.falsePositiveRate());
+    }
+
+    //Новый фильтр по ключам дерева с запасом ёмкости вдвое
+    public static RowsBloomFilter rebuild(Config config, BTree<?> tree, int keysCount) {
+        var filter = new RowsBloomFilter(Math.max(config.initialCapacity(), 2 * keysCount), config.falsePositiveRate());
+        tree.forEach(filter::put);
+        config.stats().rebuilds.increment();
+        return filter;
+    }
+
+    public int size() {
+        return live;
+    }
+
+    //Хватит ли фильтра ещё на adding ключей без пересборки
+    public boolean needsRebuild(int adding) {
+        return live + stale + adding > capacity || stale > capacity / 8;
+    }
+
+    //Вызывается только для ключей, которых в дереве не было
+    public void put(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        live++;
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //count ключей удалено из дерева, их биты остаются в фильтре
+    public void removed(int count) {
+        live -= count;
+        stale += count;
+    }
+
+    //FNV-1a по символам и перемешивание fmix64: две половины дают хеши h1 + i * h2
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
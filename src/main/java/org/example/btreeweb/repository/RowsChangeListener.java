@@ -0,0 +1,8 @@
+package org.example.btreeweb.repository;
+
+import java.util.List;
+
+//Вызывается под блокировкой шарда, поэтому для одного ключа порядок вызовов совпадает с порядком изменений
+public interface RowsChangeListener {
+    void onChange(ChangeEvent.Type type, String namespace, List<String> rows);
+}
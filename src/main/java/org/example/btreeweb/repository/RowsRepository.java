@@ -1,27 +1,71 @@
 package org.example.btreeweb.repository;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 public interface RowsRepository {
-    void add(String row);
+    String DEFAULT_NAMESPACE = "default";
 
-    void remove(String row);
+    void createNamespace(String namespace, List<String> boundaries);
 
-    void clear();
+    void dropNamespace(String namespace);
 
-    boolean contains(String row);
+    //action выполняется, пока ни одно пространство имён не создаётся и не удаляется.
+    //События CREATE_NAMESPACE/DROP_NAMESPACE пишутся под той же блокировкой, поэтому номер журнала,
+    //прочитанный внутри action, согласован с набором пространств имён
+    <T> T withNamespacesLocked(Supplier<T> action);
 
-    List<String> findAll();
+    List<String> findNamespaces();
 
-    List<String> findBetween(String str1, String str2);
+    List<String> findBoundaries(String namespace);
 
-    List<String> findFirstAndLast();
+    void add(String namespace, String row);
 
-    List<String> findIfEqualLength(String string);
+    void remove(String namespace, String row);
 
-    List<String> findIfLessThan(String string);
+    void addAll(String namespace, List<String> rows);
 
-    List<String> findIfMoreThan(String string);
+    void removeAll(String namespace, List<String> rows);
+
+    void clear(String namespace);
+
+    int deleteBetween(String namespace, String str1, String str2);
+
+    boolean contains(String namespace, String row);
+
+    List<String> findAll(String namespace);
+
+    List<String> findBetween(String namespace, String str1, String str2);
+
+    List<String> findFirstAndLast(String namespace);
+
+    List<String> findAfter(String namespace, String after, int limit);
+
+    //Порядок строк пространства имён. Для сортировки и сравнения многих строк ключи RowOrdering.key
+    //стоит строить один раз на строку: для Collator это основная часть стоимости сравнения
+    RowOrdering<?> rowOrdering(String namespace);
+
+    //Имя порядка строк (RowOrdering.name): length или collator:<язык>
+    String ordering(String namespace);
+
+    List<String> findIfEqualLength(String namespace, String string);
+
+    List<String> findIfLessThan(String namespace, String string);
+
+    List<String> findIfMoreThan(String namespace, String string);
+
+    //Структура дерева для визуализации: корни шардов и depth уровней под ними, не больше limit узлов
+    TreeStructure findStructure(String namespace, int depth, int limit);
+
+    //Узел id и depth уровней его потомков
+    TreeStructure findNodeChildren(String namespace, long id, int depth, int limit);
+
+    //Узлы, изменившиеся после версии since
+    TreeStructure findStructureChanges(String namespace, long since, int limit);
+
+    //Физическое удаление ключей, помеченных при ленивом удалении, до момента deadline (System.nanoTime()).
+    //Возвращает число удалённых
+    int compactTombstones(long deadline);
 
 
 }
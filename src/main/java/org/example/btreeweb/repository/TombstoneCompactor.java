@@ -0,0 +1,53 @@
+package org.example.btreeweb.repository;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+Фоновое уплотнение при ленивом удалении (rows.delete-mode=tombstone).
+Раз в rows.tombstones.compaction-interval-ms физически удаляет помеченные ключи и перестраивает узлы,
+но не дольше rows.tombstones.compaction-budget-ms за запуск - остальное доделают следующие запуски.
+Так слияния и заимствования узлов при удалении выполняются не в потоке запроса.
+*/
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "rows.delete-mode", havingValue = "tombstone")
+public class TombstoneCompactor {
+
+    private final RowsRepository rowsRepository;
+    private final long budgetNanos;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "tombstone-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TombstoneCompactor(RowsRepository rowsRepository,
+                              @Value("${rows.tombstones.compaction-interval-ms:100}") long intervalMs,
+                              @Value("${rows.tombstones.compaction-budget-ms:5}") long budgetMs) {
+        this.rowsRepository = rowsRepository;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        scheduler.scheduleWithFixedDelay(this::compact, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void compact() {
+        try {
+            rowsRepository.compactTombstones(System.nanoTime() + budgetNanos);
+        } catch (RuntimeException e) {
+            //Исключение отменило бы все следующие запуски scheduleWithFixedDelay, поэтому только пишем в журнал
+            log.warn("Ошибка фонового уплотнения, помеченные ключи не удалены", e);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.example.btreeweb.repository;
+
+import java.util.List;
+
+//Сводка по узлу B-дерева для визуализации: keys - живые ключи самого узла,
+//minRow/maxRow - крайние ключи поддерева, subtreeSize - число ключей в поддереве.
+//Потомки передаются только по id, клиент догружает их отдельно
+public record TreeNodeSummary(long id, long version, boolean leaf, List<String> keys,
+                              String minRow, String maxRow, int subtreeSize, List<Long> children) {
+}
@@ -0,0 +1,9 @@
+package org.example.btreeweb.repository;
+
+import java.util.List;
+
+//Часть структуры пространства имён: id корней шардов и сводки узлов по уровням сверху вниз.
+//version - номер последнего изменения, клиент передаёт его в since, чтобы получить только изменившиеся узлы.
+//truncated - ответ обрезан по лимиту узлов
+public record TreeStructure(long version, List<Long> roots, List<TreeNodeSummary> nodes, boolean truncated) {
+}
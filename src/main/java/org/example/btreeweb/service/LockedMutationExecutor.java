@@ -0,0 +1,26 @@
+package org.example.btreeweb.service;
+
+import lombok.RequiredArgsConstructor;
+import org.example.btreeweb.repository.RowsRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+//Изменение применяется в потоке запроса под блокировкой шарда
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "rows.write-mode", havingValue = "locked", matchIfMissing = true)
+public class LockedMutationExecutor implements MutationExecutor {
+
+    private final RowsRepository rowsRepository;
+
+    @Override
+    public CompletableFuture<Integer> submit(Mutation mutation) {
+        try {
+            return CompletableFuture.completedFuture(mutation.applyTo(rowsRepository));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
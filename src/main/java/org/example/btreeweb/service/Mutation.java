@@ -0,0 +1,98 @@
+package org.example.btreeweb.service;
+
+import org.example.btreeweb.repository.RowsRepository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public record Mutation(Type type, String namespace, List<String> rows) {
+
+    public enum Type {
+        ADD, REMOVE, CLEAR, LOAD, DELETE_RANGE, ADD_ALL, REMOVE_ALL, CREATE_NAMESPACE, DROP_NAMESPACE
+    }
+
+    public static Mutation add(String namespace, String row) {
+        return new Mutation(Type.ADD, namespace, singleton(row));
+    }
+
+    public static Mutation remove(String namespace, String row) {
+        return new Mutation(Type.REMOVE, namespace, singleton(row));
+    }
+
+    public static Mutation clear(String namespace) {
+        return new Mutation(Type.CLEAR, namespace, List.of());
+    }
+
+    //Замена всего содержимого дерева строками из файла
+    public static Mutation load(String namespace, List<String> rows) {
+        return new Mutation(Type.LOAD, namespace, rows);
+    }
+
+    //Пачка добавлений или удалений, применяемая одной операцией над отсортированными ключами
+    public static Mutation addAll(String namespace, List<String> rows) {
+        return new Mutation(Type.ADD_ALL, namespace, rows);
+    }
+
+    public static Mutation removeAll(String namespace, List<String> rows) {
+        return new Mutation(Type.REMOVE_ALL, namespace, rows);
+    }
+
+    //Удаление строк строго между from и to
+    public static Mutation deleteBetween(String namespace, String from, String to) {
+        return new Mutation(Type.DELETE_RANGE, namespace, Arrays.asList(from, to));
+    }
+
+    //Создание пространства имён, rows - границы шардов
+    public static Mutation createNamespace(String namespace, List<String> boundaries) {
+        return new Mutation(Type.CREATE_NAMESPACE, namespace, boundaries);
+    }
+
+    public static Mutation dropNamespace(String namespace) {
+        return new Mutation(Type.DROP_NAMESPACE, namespace, List.of());
+    }
+
+    //List.of не допускает null, а null-строка должна дойти до дерева и вернуть его ошибку
+    private static List<String> singleton(String row) {
+        return Collections.singletonList(row);
+    }
+
+    //Возвращает число затронутых строк: для ADD/REMOVE - 1, для CLEAR - 0,
+    //для LOAD, ADD_ALL, REMOVE_ALL - размер пачки, для DELETE_RANGE - число удалённых,
+    //для операций над пространствами имён - 0
+    public int applyTo(RowsRepository repository) {
+        switch (type) {
+            case ADD -> repository.add(namespace, rows.get(0));
+            case REMOVE -> repository.remove(namespace, rows.get(0));
+            case CLEAR -> {
+                repository.clear(namespace);
+                return 0;
+            }
+            case LOAD -> {
+                repository.clear(namespace);
+                repository.addAll(namespace, rows);
+                return rows.size();
+            }
+            case ADD_ALL -> {
+                repository.addAll(namespace, rows);
+                return rows.size();
+            }
+            case REMOVE_ALL -> {
+                repository.removeAll(namespace, rows);
+                return rows.size();
+            }
+            case DELETE_RANGE -> {
+                return repository.deleteBetween(namespace, rows.get(0), rows.get(1));
+            }
+            case CREATE_NAMESPACE -> {
+                repository.createNamespace(namespace, rows);
+                return 0;
+            }
+            case DROP_NAMESPACE -> {
+                repository.dropNamespace(namespace);
+                return 0;
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,8 @@
+package org.example.btreeweb.service;
+
+import java.util.concurrent.CompletableFuture;
+
+//Способ применения изменений к деревьям: rows.write-mode=locked (по умолчанию) или pipeline
+public interface MutationExecutor {
+    CompletableFuture<Integer> submit(Mutation mutation);
+}
@@ -0,0 +1,141 @@
+package org.example.btreeweb.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.btreeweb.exception.WriteQueueFullException;
+import org.example.btreeweb.repository.RowsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+Все изменения проходят через ограниченную очередь и применяются одним потоком-писателем.
+Писатель забирает из очереди пачку, подряд идущие добавления (или удаления) в одно пространство имён
+сливает в одну операцию addAll/removeAll - она сортирует ключи и берёт блокировку шарда один раз на пачку.
+Если очередь заполнена дольше rows.pipeline.offer-timeout-ms, запрос получает WriteQueueFullException.
+По умолчанию остаётся locked: передача изменения писателю стоит дороже, чем экономит слияние,
+поэтому пропускная способность у pipeline ниже, а выигрывает он только хвост задержки при многих пишущих потоках
+(сравнение - WriteModeLoadTest).
+*/
+@Service
+@ConditionalOnProperty(name = "rows.write-mode", havingValue = "pipeline")
+public class PipelinedMutationExecutor implements MutationExecutor {
+
+    private record PendingMutation(Mutation mutation, CompletableFuture<Integer> future) {
+    }
+
+    private final RowsRepository rowsRepository;
+    private final BlockingQueue<PendingMutation> queue;
+    private final int batchSize;
+    private final long offerTimeoutMs;
+    private final Thread writer = new Thread(this::writeLoop, "rows-writer");
+    private volatile boolean running = true;
+
+    public PipelinedMutationExecutor(RowsRepository rowsRepository,
+                                     @Value("${rows.pipeline.queue-capacity:10000}") int queueCapacity,
+                                     @Value("${rows.pipeline.batch-size:256}") int batchSize,
+                                     @Value("${rows.pipeline.offer-timeout-ms:100}") long offerTimeoutMs) {
+        this.rowsRepository = rowsRepository;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.offerTimeoutMs = offerTimeoutMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join();
+    }
+
+    @Override
+    public CompletableFuture<Integer> submit(Mutation mutation) {
+        var pending = new PendingMutation(mutation, new CompletableFuture<>());
+        try {
+            if (!queue.offer(pending, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return CompletableFuture.failedFuture(new WriteQueueFullException("Очередь записи переполнена"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        return pending.future;
+    }
+
+    private void writeLoop() {
+        List<PendingMutation> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                applyBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    //Порядок изменений сохраняется, сливаются только соседние однотипные добавления/удаления -
+    //внутри такой серии порядок ключей на результат не влияет
+    private void applyBatch(List<PendingMutation> batch) {
+        int from = 0;
+        while (from < batch.size()) {
+            var mutation = batch.get(from).mutation;
+            int to = from + 1;
+            if (mutation.type() == Mutation.Type.ADD || mutation.type() == Mutation.Type.REMOVE) {
+                while (to < batch.size()
+                        && batch.get(to).mutation.type() == mutation.type()
+                        && batch.get(to).mutation.namespace().equals(mutation.namespace())) {
+                    to++;
+                }
+            }
+            applyRun(batch.subList(from, to));
+            from = to;
+        }
+    }
+
+    private void applyRun(List<PendingMutation> run) {
+        var first = run.get(0).mutation;
+        if (run.size() > 1) {
+            List<String> rows = new ArrayList<>(run.size());
+            run.forEach(pending -> rows.add(pending.mutation.rows().get(0)));
+            try {
+                if (first.type() == Mutation.Type.ADD) {
+                    rowsRepository.addAll(first.namespace(), rows);
+                } else {
+                    rowsRepository.removeAll(first.namespace(), rows);
+                }
+                run.forEach(pending -> pending.future.complete(1));
+                return;
+            } catch (RuntimeException e) {
+                //Ошибку пачки разбираем поштучно, чтобы она досталась только виновному запросу
+            }
+        }
+        for (var pending : run) {
+            try {
+                pending.future.complete(pending.mutation.applyTo(rowsRepository));
+            } catch (RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.btreeweb.service;
+
+import org.example.btreeweb.exception.ReadOnlyReplicaException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+//Реплика (задан rows.replication.leader-url) меняется только журналом лидера, запросы на запись отклоняются
+@Service
+@Primary
+@ConditionalOnProperty(name = "rows.replication.leader-url")
+public class ReadOnlyMutationExecutor implements MutationExecutor {
+
+    @Override
+    public CompletableFuture<Integer> submit(Mutation mutation) {
+        return CompletableFuture.failedFuture(
+                new ReadOnlyReplicaException("Реплика доступна только для чтения: " + mutation.type()));
+    }
+}
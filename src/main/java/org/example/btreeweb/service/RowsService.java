@@ -1,25 +1,55 @@
 package org.example.btreeweb.service;
 
+import org.example.btreeweb.repository.RowOrdering;
+import org.example.btreeweb.repository.TreeStructure;
+
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface RowsService {
-    void add(String row);
+    CompletableFuture<Integer> createNamespace(String namespace, List<String> boundaries);
+
+    CompletableFuture<Integer> dropNamespace(String namespace);
+
+    List<String> findNamespaces();
+
+    CompletableFuture<Integer> add(String namespace, String row);
+
+    CompletableFuture<Integer> remove(String namespace, String row);
+
+    CompletableFuture<Integer> addAll(String namespace, List<String> rows);
+
+    CompletableFuture<Integer> removeAll(String namespace, List<String> rows);
+
+    CompletableFuture<Integer> clear(String namespace);
+
+    CompletableFuture<Integer> load(String namespace, List<String> rows);
+
+    CompletableFuture<Integer> deleteBetween(String namespace, String str1, String str2);
+
+    boolean contains(String namespace, String row);
+
+    List<String> findAll(String namespace);
+
+    List<String> findBetween(String namespace, String str1, String str2);
+
+    List<String> findFirstAndLast(String namespace);
 
-    void remove(String row);
+    List<String> findAfter(String namespace, String after, int limit);
 
-    void clear();
+    RowOrdering<?> rowOrdering(String namespace);
 
-    boolean contains(String row);
+    String ordering(String namespace);
 
-    List<String> findAll();
+    List<String> findIfEqualLength(String namespace, String string);
 
-    List<String> findBetween(String str1, String str2);
+    List<String> findIfLessThan(String namespace, String string);
 
-    List<String> findFirstAndLast();
+    List<String> findIfMoreThan(String namespace, String string);
 
-    List<String> findIfEqualLength(String string);
+    TreeStructure findStructure(String namespace, int depth, int limit);
 
-    List<String> findIfLessThan(String string);
+    TreeStructure findNodeChildren(String namespace, long id, int depth, int limit);
 
-    List<String> findIfMoreThan(String string);
+    TreeStructure findStructureChanges(String namespace, long since, int limit);
 }
@@ -1,64 +1,133 @@
 package org.example.btreeweb.service;
 
 import lombok.RequiredArgsConstructor;
+import org.example.btreeweb.repository.RowOrdering;
 import org.example.btreeweb.repository.RowsRepository;
+import org.example.btreeweb.repository.TreeStructure;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @RequiredArgsConstructor
 public class RowsServiceImpl implements RowsService {
 
     private final RowsRepository rowsRepository;
+    private final MutationExecutor mutationExecutor;
 
     @Override
-    public void add(String row) {
-        rowsRepository.add(row);
+    public CompletableFuture<Integer> createNamespace(String namespace, List<String> boundaries) {
+        return mutationExecutor.submit(Mutation.createNamespace(namespace, boundaries));
     }
 
     @Override
-    public void remove(String row) {
-        rowsRepository.remove(row);
+    public CompletableFuture<Integer> dropNamespace(String namespace) {
+        return mutationExecutor.submit(Mutation.dropNamespace(namespace));
     }
 
     @Override
-    public void clear() {
-        rowsRepository.clear();
+    public List<String> findNamespaces() {
+        return rowsRepository.findNamespaces();
     }
 
     @Override
-    public boolean contains(String row) {
-        return rowsRepository.contains(row);
+    public CompletableFuture<Integer> add(String namespace, String row) {
+        return mutationExecutor.submit(Mutation.add(namespace, row));
     }
 
     @Override
-    public List<String> findAll() {
-        return rowsRepository.findAll();
+    public CompletableFuture<Integer> remove(String namespace, String row) {
+        return mutationExecutor.submit(Mutation.remove(namespace, row));
     }
 
     @Override
-    public List<String> findBetween(String str1, String str2) {
-        return rowsRepository.findBetween(str1, str2);
+    public CompletableFuture<Integer> addAll(String namespace, List<String> rows) {
+        return mutationExecutor.submit(Mutation.addAll(namespace, rows));
     }
 
     @Override
-    public List<String> findFirstAndLast() {
-        return rowsRepository.findFirstAndLast();
+    public CompletableFuture<Integer> removeAll(String namespace, List<String> rows) {
+        return mutationExecutor.submit(Mutation.removeAll(namespace, rows));
     }
 
     @Override
-    public List<String> findIfEqualLength(String string) {
-        return rowsRepository.findIfEqualLength(string);
+    public CompletableFuture<Integer> clear(String namespace) {
+        return mutationExecutor.submit(Mutation.clear(namespace));
     }
 
     @Override
-    public List<String> findIfLessThan(String string) {
-        return rowsRepository.findIfLessThan(string);
+    public CompletableFuture<Integer> load(String namespace, List<String> rows) {
+        return mutationExecutor.submit(Mutation.load(namespace, rows));
     }
 
     @Override
-    public List<String> findIfMoreThan(String string) {
-        return rowsRepository.findIfMoreThan(string);
+    public CompletableFuture<Integer> deleteBetween(String namespace, String str1, String str2) {
+        return mutationExecutor.submit(Mutation.deleteBetween(namespace, str1, str2));
+    }
+
+    @Override
+    public boolean contains(String namespace, String row) {
+        return rowsRepository.contains(namespace, row);
+    }
+
+    @Override
+    public List<String> findAll(String namespace) {
+        return rowsRepository.findAll(namespace);
+    }
+
+    @Override
+    public List<String> findBetween(String namespace, String str1, String str2) {
+        return rowsRepository.findBetween(namespace, str1, str2);
+    }
+
+    @Override
+    public List<String> findFirstAndLast(String namespace) {
+        return rowsRepository.findFirstAndLast(namespace);
+    }
+
+    @Override
+    public List<String> findAfter(String namespace, String after, int limit) {
+        return rowsRepository.findAfter(namespace, after, limit);
+    }
+
+    @Override
+    public RowOrdering<?> rowOrdering(String namespace) {
+        return rowsRepository.rowOrdering(namespace);
+    }
+
+    @Override
+    public String ordering(String namespace) {
+        return rowsRepository.ordering(namespace);
+    }
+
+    @Override
+    public List<String> findIfEqualLength(String namespace, String string) {
+        return rowsRepository.findIfEqualLength(namespace, string);
+    }
+
+    @Override
+    public List<String> findIfLessThan(String namespace, String string) {
+        return rowsRepository.findIfLessThan(namespace, string);
+    }
+
+    @Override
+    public List<String> findIfMoreThan(String namespace, String string) {
+        return rowsRepository.findIfMoreThan(namespace, string);
+    }
+
+    @Override
+    public TreeStructure findStructure(String namespace, int depth, int limit) {
+        return rowsRepository.findStructure(namespace, depth, limit);
+    }
+
+    @Override
+    public TreeStructure findNodeChildren(String namespace, long id, int depth, int limit) {
+        return rowsRepository.findNodeChildren(namespace, id, depth, limit);
+    }
+
+    @Override
+    public TreeStructure findStructureChanges(String namespace, long since, int limit) {
+        return rowsRepository.findStructureChanges(namespace, since, limit);
     }
 }
@@ -0,0 +1,31 @@
+package org.example.btreeweb.service;
+
+//Операции над множествами "дерево" и "файл". DIFFERENCE - ключи дерева, которых нет в файле
+public enum SetOperation {
+    INTERSECTION(true, false, false),
+    DIFFERENCE(false, false, true),
+    SYMMETRIC_DIFFERENCE(false, true, true);
+
+    //Входит ли в результат ключ, который есть и в дереве, и в файле / только в файле / только в дереве
+    private final boolean keepsCommon;
+    private final boolean keepsFileOnly;
+    private final boolean keepsTreeOnly;
+
+    SetOperation(boolean keepsCommon, boolean keepsFileOnly, boolean keepsTreeOnly) {
+        this.keepsCommon = keepsCommon;
+        this.keepsFileOnly = keepsFileOnly;
+        this.keepsTreeOnly = keepsTreeOnly;
+    }
+
+    public boolean keepsCommon() {
+        return keepsCommon;
+    }
+
+    public boolean keepsFileOnly() {
+        return keepsFileOnly;
+    }
+
+    public boolean keepsTreeOnly() {
+        return keepsTreeOnly;
+    }
+}
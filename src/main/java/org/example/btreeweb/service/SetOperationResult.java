@@ -0,0 +1,5 @@
+package org.example.btreeweb.service;
+
+//size - число ключей в результате, added/removed - изменения дерева при apply
+public record SetOperationResult(int size, int added, int removed) {
+}
@@ -0,0 +1,126 @@
+package org.example.btreeweb.service;
+
+import org.example.btreeweb.repository.RowOrdering;
+import org.example.btreeweb.repository.RowsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+Слияние отсортированного потока строк файла с обходом дерева по возрастанию.
+Дерево читается страницами по batchSize ключей (findAfter от последнего прочитанного ключа),
+поэтому память ограничена размером страницы и пачек изменений, а не размером дерева или файла.
+При apply дерево приводится к результату операции: недостающие ключи добавляются,
+лишние удаляются отсортированными пачками через MutationExecutor.
+*/
+@Service
+public class SetOperationsService {
+
+    private final RowsRepository rowsRepository;
+    private final MutationExecutor mutationExecutor;
+    private final int batchSize;
+
+    public SetOperationsService(RowsRepository rowsRepository, MutationExecutor mutationExecutor,
+                                @Value("${rows.set-operations.batch-size:1000}") int batchSize) {
+        this.rowsRepository = rowsRepository;
+        this.mutationExecutor = mutationExecutor;
+        this.batchSize = batchSize;
+    }
+
+    //Строки загруженного файла по возрастанию в порядке деревьев пространства имён
+    public SortedLines<?> sortedLines(String namespace, InputStream input, boolean presorted) throws IOException {
+        return SortedLines.open(input, rowsRepository.rowOrdering(namespace), batchSize, presorted);
+    }
+
+    //fileLines должны идти по возрастанию в порядке дерева и без повторов (см. SortedLines)
+    public SetOperationResult apply(String namespace, SetOperation operation, Iterator<String> fileLines,
+                                    boolean apply, Consumer<String> result) {
+        return apply(rowsRepository.rowOrdering(namespace), namespace, operation, fileLines, apply, result);
+    }
+
+    //Ключи RowOrdering для строки файла и страницы дерева строятся один раз, при чтении,
+    //а слияние сравнивает только их
+    private <K> SetOperationResult apply(RowOrdering<K> ordering, String namespace, SetOperation operation,
+                                         Iterator<String> fileLines, boolean apply, Consumer<String> result) {
+        List<String> toAdd = new ArrayList<>();
+        List<String> toRemove = new ArrayList<>();
+        int size = 0;
+        int added = 0;
+        int removed = 0;
+
+        List<String> page = rowsRepository.findAfter(namespace, null, batchSize);
+        List<K> pageKeys = keys(ordering, page);
+        int pageIndex = 0;
+        String lastKey = null;
+        String fileKey = fileLines.hasNext() ? fileLines.next() : null;
+        K fileOrderKey = fileKey == null ? null : ordering.key(fileKey);
+        while (true) {
+            if (pageIndex == page.size() && page.size() == batchSize) {
+                //Следующая страница - после последнего обработанного ключа с любой стороны,
+                //так уже добавленные из файла ключи не попадут в обход повторно
+                page = rowsRepository.findAfter(namespace, lastKey, batchSize);
+                pageKeys = keys(ordering, page);
+                pageIndex = 0;
+            }
+            String treeKey = pageIndex < page.size() ? page.get(pageIndex) : null;
+            if (fileKey == null && treeKey == null) {
+                break;
+            }
+            int order = fileKey == null ? 1 : treeKey == null ? -1 : ordering.compare(fileOrderKey, pageKeys.get(pageIndex));
+            String key = order <= 0 ? fileKey : treeKey;
+            boolean inTree = order >= 0;
+            boolean keeps = order == 0 ? operation.keepsCommon()
+                    : order < 0 ? operation.keepsFileOnly() : operation.keepsTreeOnly();
+
+            if (keeps) {
+                size++;
+                result.accept(key);
+            }
+            if (apply && keeps != inTree) {
+                (keeps ? toAdd : toRemove).add(key);
+            }
+            if (toAdd.size() >= batchSize) {
+                added += flush(Mutation.addAll(namespace, toAdd));
+                toAdd = new ArrayList<>();
+            }
+            if (toRemove.size() >= batchSize) {
+                removed += flush(Mutation.removeAll(namespace, toRemove));
+                toRemove = new ArrayList<>();
+            }
+
+            lastKey = key;
+            if (order <= 0) {
+                fileKey = fileLines.hasNext() ? fileLines.next() : null;
+                fileOrderKey = fileKey == null ? null : ordering.key(fileKey);
+            }
+            if (order >= 0) {
+                pageIndex++;
+            }
+        }
+        if (!toAdd.isEmpty()) {
+            added += flush(Mutation.addAll(namespace, toAdd));
+        }
+        if (!toRemove.isEmpty()) {
+            removed += flush(Mutation.removeAll(namespace, toRemove));
+        }
+        return new SetOperationResult(size, added, removed);
+    }
+
+    private static <K> List<K> keys(RowOrdering<K> ordering, List<String> rows) {
+        List<K> keys = new ArrayList<>(rows.size());
+        for (var row : rows) {
+            keys.add(ordering.key(row));
+        }
+        return keys;
+    }
+
+    private int flush(Mutation mutation) {
+        return mutationExecutor.submit(mutation).join();
+    }
+}
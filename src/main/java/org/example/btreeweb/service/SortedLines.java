@@ -0,0 +1,217 @@
+package org.example.btreeweb.service;
+
+import org.example.btreeweb.exception.UnsortedRowsException;
+import org.example.btreeweb.repository.RowOrdering;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/*
+Строки файла по возрастанию в порядке дерева и без повторов.
+Весь входной поток читается ещё в open, поэтому ошибка во входных данных видна до того, как по строкам что-то изменят
+или начнут отдавать ответ.
+Если файл уже отсортирован (presorted), порядок проверяется при чтении (нарушение - UnsortedRowsException),
+строки копируются без сортировки: в память или, если их больше chunkSize, в один временный файл.
+Иначе - внешняя сортировка: файл читается кусками по chunkSize строк, каждый кусок сортируется
+и сбрасывается во временный файл, затем куски сливаются через очередь с приоритетом.
+Файл не длиннее одного куска сортируется в памяти.
+В памяти одновременно не больше chunkSize строк плюс по одной строке на кусок.
+Сортировка, слияние и отсев повторов сравнивают ключи RowOrdering.key, а не строки:
+ключ строится один раз на прочитанную строку (для Collator это основная часть стоимости сравнения).
+*/
+public class SortedLines<K> implements Iterator<String>, Closeable {
+
+    private record Head<K>(K key, BufferedReader reader) {
+    }
+
+    private final RowOrdering<K> ordering;
+    private final List<Path> chunks = new ArrayList<>();
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private final PriorityQueue<Head<K>> heads;
+    private Iterator<K> memoryLines;
+    private K next;
+    private K previous;
+
+    private SortedLines(RowOrdering<K> ordering) {
+        this.ordering = ordering;
+        this.heads = new PriorityQueue<>((h1, h2) -> ordering.compare(h1.key, h2.key));
+    }
+
+    public static <K> SortedLines<K> open(InputStream input, RowOrdering<K> ordering,
+                                          int chunkSize, boolean presorted) throws IOException {
+        var lines = new SortedLines<>(ordering);
+        var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        try {
+            if (presorted) {
+                lines.copySorted(reader, chunkSize);
+            } else {
+                lines.spill(reader, chunkSize);
+            }
+            lines.advance();
+        } catch (IOException | UncheckedIOException | UnsortedRowsException e) {
+            lines.close();
+            throw e;
+        }
+        return lines;
+    }
+
+    private void spill(BufferedReader reader, int chunkSize) throws IOException {
+        try (reader) {
+            List<K> chunk = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(ordering.key(line));
+                if (chunk.size() >= chunkSize) {
+                    writeChunk(chunk);
+                    chunk.clear();
+                }
+            }
+            if (chunks.isEmpty()) {
+                //Файл целиком поместился в один кусок - временные файлы не нужны
+                chunk.sort(ordering::compare);
+                memoryLines = chunk.iterator();
+                return;
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(chunk);
+            }
+        }
+        openChunks();
+    }
+
+    //Отсортированный файл: проверка порядка при чтении, первые chunkSize строк остаются в памяти,
+    //если строк больше - все они дописываются в один временный файл, который потом читается как единственный кусок
+    private void copySorted(BufferedReader reader, int chunkSize) throws IOException {
+        try (reader) {
+            List<K> memory = new ArrayList<>(chunkSize);
+            BufferedWriter writer = null;
+            try {
+                K last = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    var key = ordering.key(line);
+                    if (last != null && ordering.compare(last, key) > 0) {
+                        throw new UnsortedRowsException("Файл не отсортирован: строка %s идёт после %s"
+                                .formatted(line, ordering.row(last)));
+                    }
+                    last = key;
+                    if (writer != null) {
+                        writer.write(line);
+                        writer.newLine();
+                    } else if (memory.size() < chunkSize) {
+                        memory.add(key);
+                    } else {
+                        var path = Files.createTempFile("btree-sort-", ".txt");
+                        chunks.add(path);
+                        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                        for (var earlier : memory) {
+                            writer.write(ordering.row(earlier));
+                            writer.newLine();
+                        }
+                        memory = null;
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                }
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+            if (chunks.isEmpty()) {
+                memoryLines = memory.iterator();
+                return;
+            }
+        }
+        openChunks();
+    }
+
+    private void openChunks() throws IOException {
+        for (var chunk : chunks) {
+            var chunkReader = Files.newBufferedReader(chunk, StandardCharsets.UTF_8);
+            readers.add(chunkReader);
+            var line = chunkReader.readLine();
+            if (line != null) {
+                heads.add(new Head<>(ordering.key(line), chunkReader));
+            }
+        }
+    }
+
+    private void writeChunk(List<K> chunk) throws IOException {
+        chunk.sort(ordering::compare);
+        var path = Files.createTempFile("btree-sort-", ".txt");
+        chunks.add(path);
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (var key : chunk) {
+                writer.write(ordering.row(key));
+                writer.newLine();
+            }
+        }
+    }
+
+    private K readNext() throws IOException {
+        if (memoryLines != null) {
+            return memoryLines.hasNext() ? memoryLines.next() : null;
+        }
+        var head = heads.poll();
+        if (head == null) {
+            return null;
+        }
+        var line = head.reader.readLine();
+        if (line != null) {
+            heads.add(new Head<>(ordering.key(line), head.reader));
+        }
+        return head.key;
+    }
+
+    private void advance() throws IOException {
+        K key;
+        do {
+            key = readNext();
+        } while (key != null && previous != null && ordering.compare(previous, key) == 0);
+        next = key;
+        previous = key == null ? previous : key;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        var result = next;
+        try {
+            advance();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ordering.row(result);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (var reader : readers) {
+            reader.close();
+        }
+        for (var chunk : chunks) {
+            Files.deleteIfExists(chunk);
+        }
+    }
+}
@@ -63,7 +63,7 @@ async function addRow() {
     try {
         const row = document.getElementById("inputRow").value;
         await sendRequest("POST", "add", { row });
-        await findAll();
+        showAllRows();
     } catch (error) {
         console.error("Error adding row:", error);
     }
@@ -73,7 +73,7 @@ async function removeRow() {
     try {
         const row = document.getElementById("inputRow").value;
         await sendRequest("DELETE", "delete", { row });
-        await findAll();
+        showAllRows();
     } catch (error) {
         console.error("Error removing row:", error);
     }
@@ -83,7 +83,7 @@ async function clearTree() {
     try {
         let noContent = false;
         await sendRequest("DELETE", "clear", { noContent });
-        await findAll();
+        showAllRows();
     } catch (error) {
         console.error("Error removing row:", error);
     }
@@ -103,6 +103,7 @@ async function containsRow() {
 async function findAll() {
     try {
         const result = await sendRequest("GET", "all");
+        allRows = result;
         displayResults(result);
     } catch (error) {
         console.error("Error finding all:", error);
@@ -166,6 +167,7 @@ async function findIfMoreThan() {
 }
 
 function displayResults(data) {
+    showingAll = data === allRows;
     const resultDiv = document.getElementById("result");
 
     if (Array.isArray(data)) {
@@ -194,7 +196,7 @@ function displayResults(data) {
 
 async function uploadFileAndShowResults(){
     await uploadFile();
-    await findAll();
+    showAllRows();
 }
 
 async function uploadFile() {
@@ -263,7 +265,120 @@ function changeResultTextBox(value,good){
    field.value = value;
 }
 
-(async () =>{
-    await findAll();
-})();
+// Содержимое дерева поддерживается потоком изменений /api/changes, без повторных запросов всего списка
+let allRows = [];
+let showingAll = false;
+let pendingEvents = null;
+// Порядок дерева: сначала по длине, затем лексикографически.
+// Другой порядок (btree.ordering=collator) страница не повторяет и после изменений перечитывает список
+let lengthOrdering = true;
+
+async function loadOrdering() {
+    try {
+        const response = await fetch('http://localhost:8080/api/rows/ordering');
+        lengthOrdering = (await response.json()).ordering === "length";
+    } catch (error) {
+        console.error("Error loading ordering:", error);
+    }
+}
+
+function compareRows(a, b) {
+    return a.length - b.length || (a < b ? -1 : a > b ? 1 : 0);
+}
+
+function lowerBound(row) {
+    let low = 0;
+    let high = allRows.length;
+    while (low < high) {
+        const middle = (low + high) >>> 1;
+        if (compareRows(allRows[middle], row) < 0) {
+            low = middle + 1;
+        } else {
+            high = middle;
+        }
+    }
+    return low;
+}
+
+function applyChange(type, rows) {
+    switch (type) {
+        case "ADD":
+            rows.forEach(row => {
+                const index = lowerBound(row);
+                if (allRows[index] !== row) {
+                    allRows.splice(index, 0, row);
+                }
+            });
+            break;
+        case "REMOVE":
+            rows.forEach(row => {
+                const index = lowerBound(row);
+                if (allRows[index] === row) {
+                    allRows.splice(index, 1);
+                }
+            });
+            break;
+        case "DELETE_RANGE":
+            allRows = allRows.filter(row => compareRows(row, rows[0]) <= 0 || compareRows(row, rows[1]) >= 0);
+            break;
+        case "CLEAR":
+        case "DROP_NAMESPACE":
+            allRows = [];
+            break;
+    }
+}
+
+function showAllRows() {
+    if (pendingEvents === null) {
+        displayResults(allRows);
+    }
+}
+
+// События, пришедшие во время загрузки списка, откладываются и применяются поверх него
+async function reloadAllRows() {
+    pendingEvents = [];
+    try {
+        const response = await fetch('http://localhost:8080/api/rows/all');
+        allRows = await response.json();
+    } catch (error) {
+        console.error("Error loading rows:", error);
+    }
+    const events = pendingEvents;
+    pendingEvents = null;
+    if (!lengthOrdering && events.length > 0) {
+        return reloadAllRows();
+    }
+    events.forEach(event => applyChange(event.type, event.rows));
+    showAllRows();
+}
+
+function startChangeStream() {
+    const source = new EventSource('http://localhost:8080/api/changes?ns=default');
+    const onChange = message => {
+        const event = JSON.parse(message.data);
+        if (pendingEvents !== null) {
+            pendingEvents.push(event);
+            return;
+        }
+        if (!lengthOrdering) {
+            reloadAllRows();
+            return;
+        }
+        const wasShowingAll = showingAll;
+        applyChange(event.type, event.rows);
+        if (wasShowingAll) {
+            displayResults(allRows);
+        }
+    };
+    ["ADD", "REMOVE", "CLEAR", "DELETE_RANGE", "DROP_NAMESPACE"]
+        .forEach(type => source.addEventListener(type, onChange));
+    // Журнал сервера ушёл вперёд - перечитываем список целиком и подписываемся заново
+    source.addEventListener("reset", () => {
+        source.close();
+        startChangeStream();
+    });
+    source.onopen = () => reloadAllRows();
+}
+
+loadOrdering().then(startChangeStream);
 
@@ -0,0 +1,110 @@
+package org.example.btreeweb.controller;
+
+import org.example.btreeweb.exception.MalformedRowsException;
+import org.example.btreeweb.exception_handling.GlobalExceptionHandler;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticMessageSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryRowsTest {
+
+    private static byte[] write(List<String> rows, int bufferSize) throws IOException {
+        var output = new ByteArrayOutputStream();
+        var writer = new BinaryRowsWriter(output, bufferSize);
+        writer.writeList(rows);
+        writer.flush();
+        return output.toByteArray();
+    }
+
+    private static List<String> read(byte[] bytes, int bufferSize) throws IOException {
+        return new BinaryRowsReader(new ByteArrayInputStream(bytes), bufferSize).readList();
+    }
+
+    //Маленькие буферы заставляют и писателя, и читателя переходить через границу буфера внутри строк
+    private static void assertRoundTrip(List<String> rows) throws IOException {
+        for (int bufferSize : new int[]{16, 64, 8192}) {
+            var bytes = write(rows, bufferSize);
+            assertEquals(rows, read(bytes, bufferSize));
+            assertEquals(rows, read(bytes, 3));
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        var chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    void emptyListAndEmptyRows() throws IOException {
+        assertArrayEquals(new byte[]{0}, write(List.of(), 16));
+        assertArrayEquals(new byte[]{1, 0, 0}, write(List.of(""), 16));
+        assertRoundTrip(List.of());
+        assertRoundTrip(List.of("", "", "a", ""));
+    }
+
+    @Test
+    void nonAsciiRowsAreUtf8() throws IOException {
+        var rows = List.of("строка", "ключ-42", "日本語", "😀 emoji", "é", "a߿bࠀc￿");
+        assertRoundTrip(rows);
+        var bytes = write(List.of("строка"), 16);
+        var utf8 = "строка".getBytes(StandardCharsets.UTF_8);
+        assertEquals(utf8.length, bytes[1]);
+        assertArrayEquals(utf8, Arrays.copyOfRange(bytes, 2, 2 + utf8.length));
+
+        //Непарный суррогат кодируется так же, как String.getBytes: '?'
+        assertEquals(List.of("a?b", "?"), read(write(List.of("a\uD800b", "\uDC00"), 16), 16));
+    }
+
+    //Длины 128 и больше занимают в varint два и три байта; строки длиннее буфера писатель пишет мимо него
+    @Test
+    void multiByteLengthsAndCounts() throws IOException {
+        var rows = List.of(repeat('a', 127), repeat('b', 128), repeat('ж', 100), repeat('c', 16383), repeat('d', 16384));
+        assertRoundTrip(rows);
+        var bytes = write(List.of(repeat('b', 128)), 8192);
+        assertArrayEquals(new byte[]{1, (byte) 0x80, 1}, Arrays.copyOf(bytes, 3));
+        bytes = write(List.of(repeat('d', 16384)), 8192);
+        assertArrayEquals(new byte[]{1, (byte) 0x80, (byte) 0x80, 1}, Arrays.copyOf(bytes, 4));
+
+        var many = new String[300];
+        Arrays.fill(many, "к");
+        assertRoundTrip(List.of(many));
+
+        var output = new ByteArrayOutputStream();
+        var writer = new BinaryRowsWriter(output, 16);
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        for (long value : values) {
+            writer.writeVarint(value);
+        }
+        writer.flush();
+        var reader = new BinaryRowsReader(new ByteArrayInputStream(output.toByteArray()), 4);
+        for (long value : values) {
+            assertEquals(value, reader.readVarint());
+        }
+    }
+
+    //Любой оборванный префикс корректного тела - MalformedRowsException, на которую обработчик отвечает 400
+    @Test
+    void truncatedBodyIsBadRequest() throws IOException {
+        var bytes = write(List.of("ключ", repeat('x', 200), ""), 16);
+        for (int length = 0; length < bytes.length; length++) {
+            var prefix = Arrays.copyOf(bytes, length);
+            var exception = assertThrows(MalformedRowsException.class, () -> read(prefix, 16), "префикс " + length);
+            var response = new GlobalExceptionHandler(new StaticMessageSource())
+                    .handleMalformedRowsException(exception, Locale.ROOT);
+            assertEquals(400, response.getStatusCode().value());
+        }
+        assertThrows(MalformedRowsException.class,
+                () -> read(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1}, 16));
+    }
+}
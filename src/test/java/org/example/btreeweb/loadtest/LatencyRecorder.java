@@ -0,0 +1,32 @@
+package org.example.btreeweb.loadtest;
+
+import java.util.Arrays;
+
+//Все замеры задержки одной операции в наносекундах, перцентили считаются по отсортированной копии
+class LatencyRecorder {
+
+    private long[] values = new long[1024];
+    private int size;
+
+    synchronized void record(long nanos) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = nanos;
+    }
+
+    synchronized long[] sorted() {
+        var copy = Arrays.copyOf(values, size);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    //q = 0.5, 0.99, 0.999; для пустого набора - 0
+    static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+}
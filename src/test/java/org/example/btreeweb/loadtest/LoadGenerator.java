@@ -0,0 +1,71 @@
+package org.example.btreeweb.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Генератор нагрузки с фиксированной интенсивностью (открытая модель): запрос i должен уйти в момент start + i / rate,
+независимо от того, успели ли ответить предыдущие. Одновременно в полёте не больше maxInFlight запросов -
+если лимит исчерпан, отправка задерживается, и эта задержка попадает в скорректированные задержки.
+Запросы, запланированные на время прогрева, не учитываются.
+*/
+class LoadGenerator {
+
+    private final HttpClient httpClient;
+    private final int rate;
+    private final Duration warmup;
+    private final Duration duration;
+    private final int maxInFlight;
+
+    LoadGenerator(HttpClient httpClient, int rate, Duration warmup, Duration duration, int maxInFlight) {
+        this.httpClient = httpClient;
+        this.rate = rate;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.maxInFlight = maxInFlight;
+    }
+
+    LoadReport run(Workload workload, long seed) throws InterruptedException {
+        var random = new Random(seed);
+        Map<String, OperationStats> stats = new LinkedHashMap<>();
+        workload.operations().forEach(operation -> stats.put(operation.name(), new OperationStats()));
+        var inFlight = new Semaphore(maxInFlight);
+        long period = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        for (long i = 0; ; i++) {
+            long intended = start + i * period;
+            if (intended >= end) {
+                break;
+            }
+            long delay = intended - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            var operation = workload.next(random);
+            var request = operation.request().apply(random);
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            var operationStats = intended >= measureFrom ? stats.get(operation.name()) : null;
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        long done = System.nanoTime();
+                        inFlight.release();
+                        if (operationStats != null) {
+                            operationStats.record(intended, sent, done, response == null ? -1 : response.statusCode());
+                        }
+                    });
+        }
+        //Дожидаемся всех ответов
+        inFlight.acquire(maxInFlight);
+        long finished = System.nanoTime();
+        return new LoadReport(workload.name(), rate, Duration.ofNanos(finished - measureFrom), stats);
+    }
+}
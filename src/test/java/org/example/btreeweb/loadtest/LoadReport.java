@@ -0,0 +1,50 @@
+package org.example.btreeweb.loadtest;
+
+import java.time.Duration;
+import java.util.Map;
+
+record LoadReport(String workload, int rate, Duration elapsed, Map<String, OperationStats> stats) {
+
+    long errors() {
+        return stats.values().stream().mapToLong(operation -> operation.errors.get()).sum();
+    }
+
+    long count(String operation) {
+        return stats.get(operation).corrected.sorted().length;
+    }
+
+    @Override
+    public String toString() {
+        var report = new StringBuilder();
+        report.append("%n%s: %d запр/с, %.1f с%n".formatted(workload, rate, elapsed.toMillis() / 1000.0));
+        report.append("%-22s %8s %6s %6s %9s | %9s %9s %9s | %9s %9s %9s%n".formatted(
+                "операция", "запросов", "4xx", "ошибок", "запр/с",
+                "p50 мс", "p99 мс", "p999 мс", "raw p50", "raw p99", "raw p999"));
+        var total = new OperationStats();
+        stats.forEach((name, operation) -> {
+            append(report, name, operation.corrected.sorted(), operation.raw.sorted(),
+                    operation.rejected.get(), operation.errors.get());
+            for (long value : operation.corrected.sorted()) {
+                total.corrected.record(value);
+            }
+            for (long value : operation.raw.sorted()) {
+                total.raw.record(value);
+            }
+            total.rejected.addAndGet(operation.rejected.get());
+            total.errors.addAndGet(operation.errors.get());
+        });
+        append(report, "всего", total.corrected.sorted(), total.raw.sorted(), total.rejected.get(), total.errors.get());
+        return report.toString();
+    }
+
+    private void append(StringBuilder report, String name, long[] corrected, long[] raw, long rejected, long errors) {
+        report.append("%-22s %8d %6d %6d %9.1f | %9.2f %9.2f %9.2f | %9.2f %9.2f %9.2f%n".formatted(
+                name, corrected.length, rejected, errors, corrected.length * 1000.0 / elapsed.toMillis(),
+                millis(corrected, 0.5), millis(corrected, 0.99), millis(corrected, 0.999),
+                millis(raw, 0.5), millis(raw, 0.99), millis(raw, 0.999)));
+    }
+
+    private static double millis(long[] sorted, double q) {
+        return LatencyRecorder.percentile(sorted, q) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.btreeweb.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Результаты одной операции.
+corrected - задержка от момента, когда запрос должен был уйти по расписанию (с поправкой на coordinated omission):
+если генератор упёрся в лимит одновременных запросов, ожидание отправки входит в задержку.
+raw - задержка от фактической отправки, как её видит закрытый цикл "запрос-ответ".
+*/
+class OperationStats {
+
+    final LatencyRecorder corrected = new LatencyRecorder();
+    final LatencyRecorder raw = new LatencyRecorder();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+
+    //status == -1 - ответа нет (ошибка соединения)
+    void record(long intended, long sent, long done, int status) {
+        corrected.record(done - intended);
+        raw.record(done - sent);
+        if (status < 0 || status >= 500) {
+            errors.incrementAndGet();
+        } else if (status >= 400) {
+            rejected.incrementAndGet();
+        }
+    }
+}
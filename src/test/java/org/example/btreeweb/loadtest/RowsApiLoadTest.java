@@ -0,0 +1,128 @@
+package org.example.btreeweb.loadtest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+Нагрузочный тест всего пути запроса (Tomcat, Jackson, контроллер, сервис, дерево) на случайном порту.
+Запускается только профилем: mvn -Pload-test test
+Параметры (-D...): load.rate - запросов в секунду, load.warmup-seconds, load.duration-seconds,
+load.max-in-flight - лимит одновременных запросов, load.rows - размер исходного набора, load.seed.
+Режим записи выбирается как обычно, например -Drows.write-mode=pipeline.
+*/
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class RowsApiLoadTest {
+
+    private static final int RATE = Integer.getInteger("load.rate", 500);
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmup-seconds", 5);
+    private static final int DURATION_SECONDS = Integer.getInteger("load.duration-seconds", 30);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("load.max-in-flight", 64);
+    private static final int ROWS = Integer.getInteger("load.rows", 100_000);
+    private static final long SEED = Long.getLong("load.seed", 42);
+
+    @LocalServerPort
+    private int port;
+
+    private HttpClient httpClient;
+    private RowsRequests requests;
+    private LoadGenerator generator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        requests = new RowsRequests(port, ROWS);
+        generator = new LoadGenerator(httpClient, RATE, Duration.ofSeconds(WARMUP_SECONDS),
+                Duration.ofSeconds(DURATION_SECONDS), MAX_IN_FLIGHT);
+        //Каждый сценарий начинается с одного и того же исходного набора
+        var response = httpClient.send(requests.upload(new Random(SEED)), HttpResponse.BodyHandlers.discarding());
+        assertEquals(200, response.statusCode());
+    }
+
+    @Test
+    void readHeavy() throws InterruptedException {
+        var workload = new Workload("read-heavy")
+                .with("contains", 300, requests::contains)
+                .with("between", 200, requests::between)
+                .with("first-last", 100, requests::firstLast)
+                .with("less-than", 80, requests::lessThan)
+                .with("more-than", 80, requests::moreThan)
+                .with("equal-length", 20, requests::equalLength)
+                .with("all", 2, requests::all)
+                .with("add", 100, requests::add)
+                .with("delete", 50, requests::delete)
+                .with("intersection", 10, random -> requests.setOperation("intersection", false, random));
+        run(workload);
+    }
+
+    @Test
+    void writeHeavy() throws InterruptedException {
+        var workload = new Workload("write-heavy")
+                .with("add", 450, requests::add)
+                .with("delete", 250, requests::delete)
+                .with("delete-between", 50, requests::deleteBetween)
+                .with("difference-apply", 5, random -> requests.setOperation("difference", true, random))
+                .with("contains", 150, requests::contains)
+                .with("between", 80, requests::between)
+                .with("first-last", 20, requests::firstLast);
+        run(workload);
+    }
+
+    @Test
+    void uploadPlusQuery() throws InterruptedException {
+        var workload = new Workload("upload-plus-query")
+                .with("upload-file", 2, requests::upload)
+                .with("clear", 1, requests::clear)
+                .with("contains", 300, requests::contains)
+                .with("between", 200, requests::between)
+                .with("less-than", 100, requests::lessThan)
+                .with("more-than", 100, requests::moreThan)
+                .with("equal-length", 50, requests::equalLength)
+                .with("first-last", 50, requests::firstLast)
+                .with("all", 2, requests::all)
+                .with("intersection", 50, random -> requests.setOperation("intersection", false, random))
+                .with("difference", 50, random -> requests.setOperation("difference", false, random))
+                .with("symmetric-difference", 50, random -> requests.setOperation("symmetric-difference", false, random));
+        run(workload);
+    }
+
+    //Одинаковая смесь операций в JSON и в application/x-btree-rows, плюс двоичные запросы пачками по 100 ключей
+    @Test
+    void jsonVersusBinary() throws InterruptedException {
+        run(new Workload("json")
+                .with("contains", 600, requests::contains)
+                .with("between", 200, requests::between)
+                .with("add", 200, requests::add));
+        run(new Workload("binary")
+                .with("contains", 600, random -> requests.binaryContains(random, 1))
+                .with("between", 200, requests::binaryBetween)
+                .with("add", 200, random -> requests.binaryAdd(random, 1)));
+        run(new Workload("binary-batch-100")
+                .with("contains x100", 600, random -> requests.binaryContains(random, 100))
+                .with("between", 200, requests::binaryBetween)
+                .with("add x100", 200, random -> requests.binaryAdd(random, 100)));
+    }
+
+    private void run(Workload workload) throws InterruptedException {
+        var report = generator.run(workload, SEED);
+        System.out.println(report);
+        assertEquals(0, report.errors(), "Ошибки сервера или соединения:" + report);
+        for (var operation : workload.operations()) {
+            assertTrue(report.count(operation.name()) > 0, "Не было запросов " + operation.name());
+        }
+    }
+}
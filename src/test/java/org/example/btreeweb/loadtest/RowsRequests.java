@@ -0,0 +1,181 @@
+package org.example.btreeweb.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.btreeweb.controller.BinaryRows;
+import org.example.btreeweb.controller.BinaryRowsWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+Запросы ко всем /api/rows/* для генератора нагрузки.
+Ключ n - это n в 36-ричной записи: порядок дерева (длина, затем лексикографический) совпадает с порядком чисел,
+поэтому диапазон [key(n), key(n + k)] содержит не больше k строк.
+Исходный набор - чётные ключи 0..2 * rows, так что случайный ключ есть в дереве с вероятностью 1/2.
+*/
+class RowsRequests {
+
+    private static final String BOUNDARY = "load-test-boundary";
+
+    private final String baseUrl;
+    private final int rows;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final byte[] dataset;
+
+    RowsRequests(int port, int rows) {
+        this.baseUrl = "http://localhost:" + port + "/api/rows/";
+        this.rows = rows;
+        var lines = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            lines.append(key(2L * i)).append('\n');
+        }
+        this.dataset = multipart(lines.toString());
+    }
+
+    static String key(long n) {
+        return Long.toString(n, 36);
+    }
+
+    private long randomKey(Random random) {
+        return random.nextInt(2 * rows);
+    }
+
+    HttpRequest all(Random random) {
+        return get("all");
+    }
+
+    HttpRequest firstLast(Random random) {
+        return get("first-last");
+    }
+
+    HttpRequest contains(Random random) {
+        return json("POST", "contains", Map.of("row", key(randomKey(random))));
+    }
+
+    HttpRequest between(Random random) {
+        long from = randomKey(random);
+        return json("POST", "between", Map.of("str1", key(from), "str2", key(from + 100)));
+    }
+
+    //Ключи длиной 1-2 символа - не больше 1296 строк в ответе
+    HttpRequest equalLength(Random random) {
+        return json("POST", "equal-length", Map.of("row", key(random.nextInt(36 * 36))));
+    }
+
+    HttpRequest lessThan(Random random) {
+        return json("POST", "less-than", Map.of("row", key(random.nextInt(200))));
+    }
+
+    HttpRequest moreThan(Random random) {
+        return json("POST", "more-than", Map.of("row", key(2L * rows - random.nextInt(200))));
+    }
+
+    HttpRequest add(Random random) {
+        return json("POST", "add", Map.of("row", key(randomKey(random))));
+    }
+
+    HttpRequest delete(Random random) {
+        return json("DELETE", "delete", Map.of("row", key(randomKey(random))));
+    }
+
+    HttpRequest deleteBetween(Random random) {
+        long from = randomKey(random);
+        return json("DELETE", "delete-between", Map.of("str1", key(from), "str2", key(from + 20)));
+    }
+
+    HttpRequest clear(Random random) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + "clear")).DELETE().build();
+    }
+
+    //Замена содержимого дерева исходным набором
+    HttpRequest upload(Random random) {
+        return multipartRequest("upload-file", dataset);
+    }
+
+    HttpRequest setOperation(String endpoint, boolean apply, Random random) {
+        var lines = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            lines.append(key(randomKey(random))).append('\n');
+        }
+        return multipartRequest(endpoint + "?apply=" + apply, multipart(lines.toString()));
+    }
+
+    //Те же операции в формате application/x-btree-rows; batch - число ключей в одном запросе
+    HttpRequest binaryContains(Random random, int batch) {
+        return binary("POST", "contains", randomKeys(random, batch));
+    }
+
+    HttpRequest binaryBetween(Random random) {
+        long from = randomKey(random);
+        return binary("POST", "between", List.of(key(from), key(from + 100)));
+    }
+
+    HttpRequest binaryAdd(Random random, int batch) {
+        return binary("POST", "add", randomKeys(random, batch));
+    }
+
+    private List<String> randomKeys(Random random, int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(key(randomKey(random)));
+        }
+        return keys;
+    }
+
+    private HttpRequest binary(String method, String endpoint, List<String> rows) {
+        var body = new ByteArrayOutputStream();
+        try {
+            var writer = new BinaryRowsWriter(body);
+            writer.writeList(rows);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return HttpRequest.newBuilder(URI.create(baseUrl + endpoint))
+                .header("Content-Type", BinaryRows.MEDIA_TYPE_VALUE)
+                .header("Accept", BinaryRows.MEDIA_TYPE_VALUE + ", application/problem+json")
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    private HttpRequest get(String endpoint) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + endpoint)).GET().build();
+    }
+
+    private HttpRequest json(String method, String endpoint, Map<String, String> body) {
+        try {
+            return HttpRequest.newBuilder(URI.create(baseUrl + endpoint))
+                    .header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private HttpRequest multipartRequest(String endpoint, byte[] body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + endpoint))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private static byte[] multipart(String content) {
+        var body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"rows.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content.getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,47 @@
+package org.example.btreeweb.loadtest;
+
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+//Смесь операций с весами, очередная операция выбирается случайно пропорционально весу
+class Workload {
+
+    record Operation(String name, int weight, Function<Random, HttpRequest> request) {
+    }
+
+    private final String name;
+    private final List<Operation> operations = new ArrayList<>();
+    private int totalWeight;
+
+    Workload(String name) {
+        this.name = name;
+    }
+
+    Workload with(String operation, int weight, Function<Random, HttpRequest> request) {
+        operations.add(new Operation(operation, weight, request));
+        totalWeight += weight;
+        return this;
+    }
+
+    String name() {
+        return name;
+    }
+
+    List<Operation> operations() {
+        return operations;
+    }
+
+    Operation next(Random random) {
+        int point = random.nextInt(totalWeight);
+        for (var operation : operations) {
+            point -= operation.weight();
+            if (point < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException();
+    }
+}
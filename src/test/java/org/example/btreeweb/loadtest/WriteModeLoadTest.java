@@ -0,0 +1,142 @@
+package org.example.btreeweb.loadtest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.repository.BTreeRowsRepository;
+import org.example.btreeweb.repository.LengthFirstOrdering;
+import org.example.btreeweb.service.LockedMutationExecutor;
+import org.example.btreeweb.service.Mutation;
+import org.example.btreeweb.service.MutationExecutor;
+import org.example.btreeweb.service.PipelinedMutationExecutor;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+Сравнение режимов записи rows.write-mode=locked и pipeline без HTTP: те же исполнители над тем же репозиторием.
+Каждый поток отправляет добавление или удаление и ждёт его завершения (замкнутый цикл, как у блокирующего клиента),
+поэтому задержка - от submit до готового результата, включая ожидание в очереди писателя.
+Запускается профилем: mvn -Pload-test test -Dtest=WriteModeLoadTest
+Параметры (-D...): load.write.threads - числа потоков через запятую, load.warmup-seconds, load.duration-seconds,
+load.rows - размер исходного набора, load.partitions - число шардов пространства имён.
+*/
+@Tag("load")
+class WriteModeLoadTest {
+
+    private static final String THREADS = System.getProperty("load.write.threads", "1,4,16,64");
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmup-seconds", 2);
+    private static final int DURATION_SECONDS = Integer.getInteger("load.duration-seconds", 5);
+    private static final int ROWS = Integer.getInteger("load.rows", 100_000);
+    private static final int PARTITIONS = Integer.getInteger("load.partitions", 1);
+    private static final String NAMESPACE = "write-mode";
+
+    @Test
+    void lockedVersusPipeline() throws InterruptedException {
+        var report = new StringBuilder();
+        report.append("%n%-8s %7s %10s %9s %9s %9s %7s%n".formatted(
+                "режим", "потоков", "опер/с", "p50 мкс", "p99 мкс", "p999 мкс", "ошибок"));
+        for (var threads : THREADS.split(",")) {
+            for (var mode : List.of("locked", "pipeline")) {
+                report.append(run(mode, Integer.parseInt(threads.trim())));
+            }
+        }
+        System.out.println(report);
+    }
+
+    private String run(String mode, int threads) throws InterruptedException {
+        var repository = new BTreeRowsRepository(2, "length", "ru-RU", true, 1024, 0.01, "eager", 64,
+                List.of(), new SimpleMeterRegistry());
+        var random = new Random(42);
+        List<String> initial = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            initial.add(row(random));
+        }
+        //Границы - квантили исходного набора, шарды получают поровну ключей
+        var ordered = new ArrayList<>(initial);
+        ordered.sort(LengthFirstOrdering.INSTANCE::compare);
+        List<String> boundaries = new ArrayList<>();
+        for (int i = 1; i < PARTITIONS; i++) {
+            boundaries.add(ordered.get(i * ROWS / PARTITIONS));
+        }
+        repository.createNamespace(NAMESPACE, boundaries);
+        repository.addAll(NAMESPACE, initial);
+
+        PipelinedMutationExecutor pipeline = null;
+        MutationExecutor executor;
+        if (mode.equals("pipeline")) {
+            pipeline = new PipelinedMutationExecutor(repository, 10_000, 256, 100);
+            pipeline.start();
+            executor = pipeline;
+        } else {
+            executor = new LockedMutationExecutor(repository);
+        }
+
+        var stopped = new AtomicBoolean();
+        var measuring = new AtomicBoolean();
+        var errors = new AtomicLong();
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        List<Thread> submitters = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            var recorder = new LatencyRecorder();
+            var threadRandom = new Random(i);
+            recorders.add(recorder);
+            submitters.add(new Thread(() -> {
+                while (!stopped.get()) {
+                    var mutation = threadRandom.nextBoolean()
+                            ? Mutation.add(NAMESPACE, row(threadRandom))
+                            : Mutation.remove(NAMESPACE, initial.get(threadRandom.nextInt(initial.size())));
+                    long start = System.nanoTime();
+                    try {
+                        executor.submit(mutation).join();
+                    } catch (CompletionException e) {
+                        errors.incrementAndGet();
+                    }
+                    if (measuring.get()) {
+                        recorder.record(System.nanoTime() - start);
+                    }
+                }
+            }, "writer-" + i));
+        }
+        submitters.forEach(Thread::start);
+        Thread.sleep(WARMUP_SECONDS * 1000L);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(DURATION_SECONDS * 1000L);
+        measuring.set(false);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        stopped.set(true);
+        for (var submitter : submitters) {
+            submitter.join();
+        }
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        assertEquals(0, errors.get());
+
+        long[] latencies = new long[0];
+        for (var recorder : recorders) {
+            var sorted = recorder.sorted();
+            int from = latencies.length;
+            latencies = Arrays.copyOf(latencies, from + sorted.length);
+            System.arraycopy(sorted, 0, latencies, from, sorted.length);
+        }
+        Arrays.sort(latencies);
+        return "%-8s %7d %10.0f %9.1f %9.1f %9.1f %7d%n".formatted(mode, threads, latencies.length / seconds,
+                LatencyRecorder.percentile(latencies, 0.5) / 1e3,
+                LatencyRecorder.percentile(latencies, 0.99) / 1e3,
+                LatencyRecorder.percentile(latencies, 0.999) / 1e3,
+                errors.get());
+    }
+
+    private static String row(Random random) {
+        return Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+    }
+}
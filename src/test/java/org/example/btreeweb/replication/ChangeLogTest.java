@@ -0,0 +1,105 @@
+package org.example.btreeweb.replication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.repository.ChangeEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeLogTest {
+
+    private static ChangeLog changeLog(int capacity, long maxRows) {
+        return new ChangeLog(capacity, maxRows, new SimpleMeterRegistry());
+    }
+
+    private static List<String> rows(int count) {
+        return new ArrayList<>(Collections.nCopies(count, "r"));
+    }
+
+    @Test
+    void eventsGetConsecutiveNumbers() {
+        var changeLog = changeLog(8, 1000);
+        assertEquals(0, changeLog.head());
+        changeLog.onChange(ChangeEvent.Type.CREATE_NAMESPACE, "a", List.of());
+        changeLog.onChange(ChangeEvent.Type.ADD, "a", List.of("x", "y"));
+        changeLog.onChange(ChangeEvent.Type.REMOVE, "a", List.of("x"));
+
+        assertEquals(3, changeLog.head());
+        assertEquals(ChangeEvent.Type.CREATE_NAMESPACE, changeLog.get(1).type());
+        assertEquals(List.of("x", "y"), changeLog.get(2).rows());
+        assertEquals(3, changeLog.get(3).seq());
+        assertNull(changeLog.get(4));
+        assertFalse(changeLog.isEvicted(1));
+    }
+
+    @Test
+    void oldEventsAreEvictedByCapacity() {
+        var changeLog = changeLog(4, 1000);
+        for (int i = 0; i < 10; i++) {
+            changeLog.onChange(ChangeEvent.Type.ADD, "a", List.of("r" + i));
+        }
+        assertTrue(changeLog.isEvicted(6));
+        assertNull(changeLog.get(6));
+        for (long seq = 7; seq <= 10; seq++) {
+            assertFalse(changeLog.isEvicted(seq));
+            assertEquals(List.of("r" + (seq - 1)), changeLog.get(seq).rows());
+        }
+    }
+
+    //Ёмкость в событиях не спасает от больших событий: журнал держит не больше max-rows строк
+    @Test
+    void oldEventsAreEvictedByRows() {
+        var changeLog = changeLog(100, 10);
+        for (int i = 0; i < 3; i++) {
+            changeLog.onChange(ChangeEvent.Type.ADD, "a", rows(4));
+        }
+        assertTrue(changeLog.isEvicted(1));
+        assertNull(changeLog.get(1));
+        assertFalse(changeLog.isEvicted(2));
+        assertNotNull(changeLog.get(3));
+
+        //Одно событие больше лимита вытесняет всё, включая себя: подписчик получит reset и перечитает снимок
+        changeLog.onChange(ChangeEvent.Type.ADD, "a", rows(50));
+        assertTrue(changeLog.isEvicted(4));
+        assertNull(changeLog.get(4));
+
+        changeLog.onChange(ChangeEvent.Type.CLEAR, "a", List.of());
+        assertFalse(changeLog.isEvicted(5));
+        assertEquals(ChangeEvent.Type.CLEAR, changeLog.get(5).type());
+    }
+
+    @Test
+    void concurrentWritersKeepNumbersAndRowBudget() {
+        var changeLog = changeLog(1000, 5000);
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            var random = new Random(w);
+            writers.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    changeLog.onChange(ChangeEvent.Type.ADD, "a", rows(random.nextInt(20)));
+                }
+            }));
+        }
+        writers.forEach(CompletableFuture::join);
+
+        assertEquals(80_000, changeLog.head());
+        long held = 0;
+        for (long seq = 1; seq <= changeLog.head(); seq++) {
+            var event = changeLog.get(seq);
+            if (event == null) {
+                assertTrue(changeLog.isEvicted(seq), "событие " + seq + " потеряно, но не вытеснено");
+            } else {
+                assertEquals(seq, event.seq());
+                held += Math.max(1, event.rows().size());
+            }
+        }
+        assertTrue(held <= 5000, "в журнале " + held + " строк");
+        assertNotNull(changeLog.get(changeLog.head()));
+    }
+}
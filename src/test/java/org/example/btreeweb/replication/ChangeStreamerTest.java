@@ -0,0 +1,140 @@
+package org.example.btreeweb.replication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.repository.ChangeEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeStreamerTest {
+
+    //Эмиттер без HTTP: запоминает имена отправленных событий, у "медленного" send висит до конца теста
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<String> names = new CopyOnWriteArrayList<>();
+        private final CountDownLatch release;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        private RecordingEmitter(boolean slow) {
+            super(0L);
+            release = new CountDownLatch(slow ? 1 : 0);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            for (var part : builder.build()) {
+                if (part.getData() instanceof String text) {
+                    text.lines()
+                            .filter(line -> line.startsWith("event:"))
+                            .forEach(line -> names.add(line.substring("event:".length())));
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+            super.complete();
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            error = ex;
+            super.completeWithError(ex);
+        }
+
+        private List<String> events() {
+            return names.stream().filter(name -> !name.equals("heartbeat")).toList();
+        }
+    }
+
+    private static ChangeLog changeLog(int capacity) {
+        return new ChangeLog(capacity, 1_000_000, new SimpleMeterRegistry());
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, message);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void deliversEventsInOrderForSubscribedNamespace() throws InterruptedException {
+        var changeLog = changeLog(100);
+        var streamer = new ChangeStreamer(changeLog, 5, 60_000, 10_000);
+        try {
+            changeLog.onChange(ChangeEvent.Type.CREATE_NAMESPACE, "a", List.of());
+            var emitter = new RecordingEmitter(false);
+            streamer.subscribe(emitter, 0L, "a");
+            changeLog.onChange(ChangeEvent.Type.ADD, "b", List.of("x"));
+            changeLog.onChange(ChangeEvent.Type.ADD, "a", List.of("x"));
+            changeLog.onChange(ChangeEvent.Type.CLEAR, "b", List.of());
+            changeLog.onChange(ChangeEvent.Type.REMOVE, "a", List.of("x"));
+            changeLog.onChange(ChangeEvent.Type.DROP_NAMESPACE, "a", List.of());
+
+            await(() -> emitter.events().size() == 4, "события не доставлены: " + emitter.names);
+            assertEquals(List.of("CREATE_NAMESPACE", "ADD", "REMOVE", "DROP_NAMESPACE"), emitter.events());
+            assertNull(emitter.error);
+        } finally {
+            streamer.stop();
+        }
+    }
+
+    //Зависшая отправка одному подписчику не задерживает другого, а по send-timeout-ms подписчик отключается
+    @Test
+    void slowSubscriberDoesNotDelayOthersAndIsDropped() throws InterruptedException {
+        var changeLog = changeLog(100);
+        var streamer = new ChangeStreamer(changeLog, 5, 60_000, 300);
+        try {
+            var slow = new RecordingEmitter(true);
+            var fast = new RecordingEmitter(false);
+            streamer.subscribe(slow, 0L, null);
+            streamer.subscribe(fast, 0L, null);
+            for (int i = 0; i < 20; i++) {
+                changeLog.onChange(ChangeEvent.Type.ADD, "a", List.of("r" + i));
+            }
+            await(() -> fast.events().size() == 20, "быстрый подписчик ждёт медленного");
+            assertNull(slow.error);
+
+            await(() -> slow.error != null, "медленный подписчик не отключён");
+            assertTrue(slow.names.isEmpty());
+            changeLog.onChange(ChangeEvent.Type.REMOVE, "a", List.of("r0"));
+            await(() -> fast.events().size() == 21, "после отключения медленного события не доходят");
+            assertEquals("REMOVE", fast.events().get(20));
+            assertNull(fast.error);
+        } finally {
+            streamer.stop();
+        }
+    }
+
+    @Test
+    void subscriberBehindEvictedEventsGetsReset() throws InterruptedException {
+        var changeLog = changeLog(4);
+        var streamer = new ChangeStreamer(changeLog, 5, 60_000, 10_000);
+        try {
+            for (int i = 0; i < 10; i++) {
+                changeLog.onChange(ChangeEvent.Type.ADD, "a", List.of("r" + i));
+            }
+            var emitter = new RecordingEmitter(false);
+            streamer.subscribe(emitter, 2L, null);
+            await(() -> emitter.completed, "подписчик не отключён");
+            assertEquals(List.of("reset"), emitter.events());
+        } finally {
+            streamer.stop();
+        }
+    }
+}
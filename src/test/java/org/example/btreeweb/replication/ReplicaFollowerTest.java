@@ -0,0 +1,148 @@
+package org.example.btreeweb.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.exception.NamespaceNotFoundException;
+import org.example.btreeweb.repository.BTreeRowsRepository;
+import org.example.btreeweb.repository.ChangeEvent;
+import org.example.btreeweb.repository.RowsRepository;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaFollowerTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    //Лидер на HttpServer: снимок зависит от номера запроса снимка, поток событий - от since.
+    //Соединение с потоком держится недолго и закрывается, реплика переподключается со своего номера
+    private static class FakeLeader implements AutoCloseable {
+        private final HttpServer server;
+        private final AtomicInteger snapshotRequests = new AtomicInteger();
+
+        private FakeLeader(IntFunction<ChangeSnapshot> snapshots, LongFunction<List<String>> frames) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/api/changes/snapshot", exchange ->
+                    respond(exchange, "application/json",
+                            OBJECT_MAPPER.writeValueAsString(snapshots.apply(snapshotRequests.incrementAndGet()))));
+            server.createContext("/api/changes", exchange -> {
+                long since = Long.parseLong(exchange.getRequestURI().getQuery().substring("since=".length()));
+                respond(exchange, "text/event-stream", String.join("", frames.apply(since)));
+            });
+            server.start();
+        }
+
+        private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, 0);
+            try (var out = exchange.getResponseBody()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+
+    private static String event(long seq, ChangeEvent.Type type, String namespace, String... rows) {
+        try {
+            var event = new ChangeEvent(seq, type, namespace, List.of(rows), System.currentTimeMillis());
+            return "id:" + seq + "\nevent:" + type + "\ndata:" + OBJECT_MAPPER.writeValueAsString(event) + "\n\n";
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ChangeSnapshot snapshot(long seq, String... rows) {
+        return new ChangeSnapshot(seq, Map.of("r", new ChangeSnapshot.NamespaceSnapshot(List.of(), List.of(rows))));
+    }
+
+    private static RowsRepository repository() {
+        return new BTreeRowsRepository(2, "length", "ru-RU", true, 1024, 0.01, "eager", 64,
+                List.of(), new SimpleMeterRegistry());
+    }
+
+    //Реплика догнала лидера, когда её состояние совпало с ожидаемым
+    private static void follow(FakeLeader leader, RowsRepository replica, BooleanSupplier caughtUp) throws InterruptedException {
+        var follower = new ReplicaFollower(leader.url(), 20, replica,
+                new SnapshotService(replica, new ChangeLog(16, 1000, new SimpleMeterRegistry())),
+                OBJECT_MAPPER, new SimpleMeterRegistry());
+        follower.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!caughtUp.getAsBoolean()) {
+                assertTrue(System.currentTimeMillis() < deadline, "реплика не догнала лидера");
+                Thread.sleep(10);
+            }
+        } finally {
+            follower.stop();
+        }
+    }
+
+    private static boolean hasRows(RowsRepository replica, List<String> rows) {
+        try {
+            return replica.findAll("r").equals(rows);
+        } catch (NamespaceNotFoundException e) {
+            //Снимок ещё восстанавливается
+            return false;
+        }
+    }
+
+    @Test
+    void appliesEventsAfterSnapshot() throws Exception {
+        try (var leader = new FakeLeader(request -> snapshot(2, "a", "b"), since -> since == 2
+                ? List.of(event(3, ChangeEvent.Type.ADD, "r", "c"), event(4, ChangeEvent.Type.REMOVE, "r", "a"))
+                : List.of())) {
+            var replica = repository();
+            follow(leader, replica, () -> hasRows(replica, List.of("b", "c")));
+            assertEquals(1, leader.snapshotRequests.get());
+        }
+    }
+
+    //Пропущенный номер: реплика не применяет событие после дыры, а перечитывает снимок
+    @Test
+    void gapTriggersResync() throws Exception {
+        try (var leader = new FakeLeader(
+                request -> request == 1 ? snapshot(2, "a") : snapshot(5, "a", "b", "c", "d"),
+                since -> since == 2
+                        ? List.of(event(3, ChangeEvent.Type.ADD, "r", "b"), event(5, ChangeEvent.Type.ADD, "r", "d"))
+                        : List.of())) {
+            var replica = repository();
+            follow(leader, replica, () -> hasRows(replica, List.of("a", "b", "c", "d")));
+            assertEquals(2, leader.snapshotRequests.get());
+        }
+    }
+
+    @Test
+    void resetTriggersResync() throws Exception {
+        try (var leader = new FakeLeader(
+                request -> request == 1 ? snapshot(2, "a") : snapshot(10, "x", "y"),
+                since -> since == 2 ? List.of("event:reset\ndata:{\"seq\":10}\n\n") : List.of())) {
+            var replica = repository();
+            follow(leader, replica, () -> hasRows(replica, List.of("x", "y")));
+            assertEquals(2, leader.snapshotRequests.get());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.btreeweb.replication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.repository.BTreeRowsRepository;
+import org.example.btreeweb.repository.ChangeEvent;
+import org.example.btreeweb.repository.RowsChangeListener;
+import org.example.btreeweb.repository.RowsRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotServiceTest {
+
+    private static RowsRepository repository(List<RowsChangeListener> listeners) {
+        return new BTreeRowsRepository(2, "length", "ru-RU", true, 1024, 0.01, "eager", 64,
+                listeners, new SimpleMeterRegistry());
+    }
+
+    private static Map<String, List<String>> state(RowsRepository repository) {
+        Map<String, List<String>> state = new TreeMap<>();
+        for (var namespace : repository.findNamespaces()) {
+            state.put(namespace, repository.findAll(namespace));
+        }
+        return state;
+    }
+
+    //Снимок снимается из другого потока ровно в тот момент, когда событие CREATE_NAMESPACE/DROP_NAMESPACE
+    //уже получило номер, а набор пространств имён ещё не изменился. Реплика, восстановленная из любого снимка
+    //и догнавшая журнал с его номера, должна совпасть с лидером
+    @Test
+    void snapshotIsConsistentWithNamespaceChanges() throws Exception {
+        var changeLog = new ChangeLog(1000, 1_000_000, new SimpleMeterRegistry());
+        List<CompletableFuture<ChangeSnapshot>> snapshots = new ArrayList<>();
+        SnapshotService[] snapshotService = new SnapshotService[1];
+        RowsChangeListener probe = (type, namespace, rows) -> {
+            if (type == ChangeEvent.Type.CREATE_NAMESPACE || type == ChangeEvent.Type.DROP_NAMESPACE) {
+                var snapshot = CompletableFuture.supplyAsync(snapshotService[0]::snapshot);
+                snapshots.add(snapshot);
+                try {
+                    //Снимок, который ждёт окончания изменения, дождаться здесь нельзя - только дать ему время
+                    snapshot.get(200, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | InterruptedException | ExecutionException e) {
+                    //Снимок закончится после изменения
+                }
+            }
+        };
+        var leader = repository(List.of(changeLog, probe));
+        snapshotService[0] = new SnapshotService(leader, changeLog);
+
+        leader.createNamespace("a", List.of());
+        leader.addAll("a", List.of("1", "2", "3"));
+        leader.createNamespace("b", List.of("5"));
+        leader.add("b", "7");
+        leader.dropNamespace("a");
+        leader.createNamespace("a", List.of("x"));
+        leader.add("a", "y");
+        leader.dropNamespace("b");
+
+        assertEquals(5, snapshots.size());
+        for (var future : snapshots) {
+            var snapshot = future.join();
+            var replica = repository(List.of());
+            new SnapshotService(replica, new ChangeLog(16, 1000, new SimpleMeterRegistry())).restore(snapshot);
+            for (long seq = snapshot.seq() + 1; seq <= changeLog.head(); seq++) {
+                ReplicaFollower.apply(replica, changeLog.get(seq));
+            }
+            assertEquals(state(leader), state(replica), "снимок с номером " + snapshot.seq());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.btreeweb.repository;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+Разделение узлов на месте, заимствование у соседа и слияние против TreeSet.
+После каждого изменения - BTree.checkInvariants: от t - 1 до 2t - 1 ключей в узле, порядок ключей,
+t потомков на t - 1 ключ плюс один, одинаковая глубина листьев.
+Упорядоченные последовательности всё время бьют в крайний узел: разделение у края,
+заимствование только у единственного соседа и слияния вплоть до опустевшего корня.
+*/
+class BTreeSplitMergeTest {
+
+    private static final int ROWS = 3000;
+
+    //Одинаковая длина - порядок LengthFirstOrdering совпадает с порядком чисел
+    private static String row(int value) {
+        return "%05d".formatted(value);
+    }
+
+    private static void add(BTree<?> tree, TreeSet<String> expected, String row) {
+        assertEquals(expected.add(row), tree.add(row), "add " + row);
+        tree.checkInvariants();
+    }
+
+    private static void remove(BTree<?> tree, TreeSet<String> expected, String row) {
+        assertEquals(expected.remove(row), tree.remove(row), "remove " + row);
+        tree.checkInvariants();
+    }
+
+    //Рост и сжатие чередуются, так что дерево много раз меняет высоту в обе стороны
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 4, 5, 6})
+    void randomAddsAndRemovesKeepInvariants(int degree) {
+        var random = new Random(degree);
+        var tree = new BTree<>(degree, LengthFirstOrdering.INSTANCE);
+        var expected = new TreeSet<String>(tree::compare);
+        for (int round = 0; round < 8; round++) {
+            int addPercent = round % 2 == 0 ? 75 : 20;
+            for (int i = 0; i < 3000; i++) {
+                var row = row(random.nextInt(ROWS));
+                if (random.nextInt(100) < addPercent) {
+                    add(tree, expected, row);
+                } else {
+                    remove(tree, expected, row);
+                }
+                assertEquals(expected.size(), tree.size());
+            }
+            assertEquals(new ArrayList<>(expected), tree.getAll());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 4, 5, 6})
+    void orderedAddsAndRemovesKeepInvariants(int degree) {
+        var tree = new BTree<>(degree, LengthFirstOrdering.INSTANCE);
+        var expected = new TreeSet<String>(tree::compare);
+
+        for (int i = 0; i < ROWS; i++) {
+            add(tree, expected, row(i));
+        }
+        for (int i = 0; i < ROWS; i++) {
+            remove(tree, expected, row(i));
+        }
+        assertEquals(0, tree.size());
+
+        for (int i = ROWS - 1; i >= 0; i--) {
+            add(tree, expected, row(i));
+        }
+        for (int i = ROWS - 1; i >= 0; i -= 2) {
+            remove(tree, expected, row(i));
+        }
+        assertEquals(new ArrayList<>(expected), tree.getAll());
+
+        //Середина: удаления во внутренних узлах через предшественника и преемника
+        for (int from = ROWS / 2, step = 0; step < ROWS / 2; step++) {
+            int value = step % 2 == 0 ? from - step : from + step;
+            remove(tree, expected, row(value));
+        }
+        for (int i = 0; i < ROWS; i++) {
+            add(tree, expected, row(i));
+        }
+        assertEquals(new ArrayList<>(expected), tree.getAll());
+        assertEquals(ROWS, tree.size());
+    }
+}
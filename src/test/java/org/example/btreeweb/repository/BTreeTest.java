@@ -0,0 +1,100 @@
+package org.example.btreeweb.repository;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+Удаление диапазона против TreeSet того же порядка: узкие и широкие диапазоны, пустые и выходящие за края дерева,
+вперемешку с добавлениями. После каждого изменения проверяются инварианты B-дерева (BTree.checkInvariants):
+после вырезания поддеревьев и склейки краёв число ключей в узлах, порядок ключей и глубина листьев должны сохраниться.
+*/
+class BTreeTest {
+
+    private static final int OPERATIONS = 20_000;
+
+    private static String randomRow(Random random) {
+        return Integer.toString(random.nextInt(3000), 36);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 4, 5, 6})
+    void deleteBetweenMatchesTreeSet(int degree) {
+        var random = new Random(degree);
+        var tree = new BTree<>(degree, LengthFirstOrdering.INSTANCE);
+        var expected = new TreeSet<String>(tree::compare);
+        for (int i = 0; i < OPERATIONS; i++) {
+            var row = randomRow(random);
+            int operation = random.nextInt(100);
+            if (operation < 80) {
+                assertEquals(expected.add(row), tree.add(row), "add " + row);
+            } else if (operation < 85) {
+                assertEquals(expected.remove(row), tree.remove(row), "remove " + row);
+            } else if (operation < 99) {
+                //Чаще узкие диапазоны (граничные пути рядом), реже - любые, вплоть до всего дерева
+                var to = operation < 95
+                        ? Integer.toString(Integer.parseInt(row, 36) + random.nextInt(300), 36)
+                        : randomRow(random);
+                if (tree.compare(row, to) < 0) {
+                    var range = expected.subSet(row, false, to, false);
+                    assertEquals(range.size(), tree.deleteBetween(row, to), "deleteBetween " + row + " " + to);
+                    range.clear();
+                } else {
+                    assertEquals(0, tree.deleteBetween(to, to), "deleteBetween " + to + " " + to);
+                }
+            } else if (random.nextInt(20) == 0) {
+                tree.clear();
+                expected.clear();
+            } else {
+                assertEquals(expected.contains(row), tree.isExists(row), "isExists " + row);
+            }
+            tree.checkInvariants();
+            assertEquals(expected.size(), tree.size());
+        }
+        assertEquals(new ArrayList<>(expected), tree.getAll());
+        assertEquals(expected.size(), tree.deleteBetween("", "zzzz"));
+        tree.checkInvariants();
+        assertEquals(0, tree.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 4, 5, 6})
+    void rangeQueriesMatchTreeSet(int degree) {
+        var random = new Random(degree);
+        var tree = new BTree<>(degree, LengthFirstOrdering.INSTANCE);
+        var expected = new TreeSet<String>(tree::compare);
+        for (int i = 0; i < 2000; i++) {
+            var row = randomRow(random);
+            tree.add(row);
+            expected.add(row);
+        }
+        for (int i = 0; i < 300; i++) {
+            var row = randomRow(random);
+            if (random.nextBoolean()) {
+                tree.remove(row);
+                expected.remove(row);
+            }
+            var to = randomRow(random);
+            if (tree.compare(row, to) < 0) {
+                assertEquals(new ArrayList<>(expected.subSet(row, false, to, false)), tree.findBetween(row, to));
+            }
+            assertEquals(new ArrayList<>(expected.headSet(row, false)), tree.findIfLessThan(row));
+            assertEquals(new ArrayList<>(expected.tailSet(row, false)), tree.findIfMoreThan(row));
+            List<String> page = new ArrayList<>();
+            for (var next : expected.tailSet(row, false)) {
+                if (page.size() == 10) {
+                    break;
+                }
+                page.add(next);
+            }
+            assertEquals(page, tree.findAfter(row, 10));
+            assertEquals(List.of(expected.first(), expected.last()), tree.findFirstAndLast());
+        }
+    }
+}
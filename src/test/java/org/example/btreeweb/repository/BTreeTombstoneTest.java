@@ -0,0 +1,173 @@
+package org.example.btreeweb.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Ленивое удаление: помеченные ключи не видны ни одному чтению, пока лежат в узлах,
+а компактизация порциями удаляет их физически с обычной перебалансировкой.
+После каждого изменения проверяются инварианты (BTree.checkInvariants), в том числе что каждый помеченный ключ ещё хранится.
+*/
+class BTreeTombstoneTest {
+
+    private static String randomRow(Random random) {
+        return Integer.toString(random.nextInt(3000), 36);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 4, 5, 6})
+    void markAndCompactMatchTreeSet(int degree) {
+        var random = new Random(degree);
+        var tree = new BTree<>(degree, LengthFirstOrdering.INSTANCE);
+        var expected = new TreeSet<String>(tree::compare);
+        int maxTombstones = 0;
+        for (int i = 0; i < 20_000; i++) {
+            var row = randomRow(random);
+            int operation = random.nextInt(100);
+            if (operation < 40) {
+                assertEquals(expected.add(row), tree.add(row), "add " + row);
+            } else if (operation < 50) {
+                assertEquals(expected.remove(row), tree.remove(row), "remove " + row);
+            } else if (operation < 75) {
+                assertEquals(expected.remove(row), tree.markDeleted(row), "markDeleted " + row);
+            } else if (operation < 77) {
+                int tombstones = tree.getTombstonesCount();
+                int limit = random.nextInt(64);
+                assertEquals(Math.min(limit, tombstones), tree.compact(limit));
+            } else if (operation < 79) {
+                //Узкий диапазон: широкий стирал бы почти всё дерево вместе с пометками
+                var to = Integer.toString(Integer.parseInt(row, 36) + random.nextInt(100), 36);
+                if (tree.compare(row, to) < 0) {
+                    var range = expected.subSet(row, false, to, false);
+                    assertEquals(range.size(), tree.deleteBetween(row, to), "deleteBetween " + row + " " + to);
+                    range.clear();
+                }
+            } else {
+                assertEquals(expected.contains(row), tree.isExists(row), "isExists " + row);
+            }
+            tree.checkInvariants();
+            assertEquals(expected.size(), tree.size());
+            maxTombstones = Math.max(maxTombstones, tree.getTombstonesCount());
+        }
+        assertTrue(maxTombstones > 10, "помеченных ключей было не больше " + maxTombstones);
+        assertEquals(new ArrayList<>(expected), tree.getAll());
+        tree.compact(Integer.MAX_VALUE);
+        tree.checkInvariants();
+        assertEquals(0, tree.getTombstonesCount());
+        assertEquals(new ArrayList<>(expected), tree.getAll());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 4, 5, 6})
+    void readsSkipTombstones(int degree) {
+        var random = new Random(degree);
+        var tree = new BTree<>(degree, LengthFirstOrdering.INSTANCE);
+        var expected = new TreeSet<String>(tree::compare);
+        for (int i = 0; i < 2000; i++) {
+            var row = randomRow(random);
+            tree.add(row);
+            expected.add(row);
+        }
+        for (int i = 0; i < 300; i++) {
+            var row = randomRow(random);
+            if (random.nextBoolean()) {
+                tree.markDeleted(row);
+                expected.remove(row);
+            }
+            var to = randomRow(random);
+            if (tree.compare(row, to) < 0) {
+                assertEquals(new ArrayList<>(expected.subSet(row, false, to, false)), tree.findBetween(row, to));
+            }
+            assertEquals(new ArrayList<>(expected.headSet(row, false)), tree.findIfLessThan(row));
+            assertEquals(new ArrayList<>(expected.tailSet(row, false)), tree.findIfMoreThan(row));
+            List<String> page = new ArrayList<>();
+            for (var next : expected.tailSet(row, false)) {
+                if (page.size() == 10) {
+                    break;
+                }
+                page.add(next);
+            }
+            assertEquals(page, tree.findAfter(row, 10));
+            assertEquals(List.of(expected.first(), expected.last()), tree.findFirstAndLast());
+        }
+
+        //Первый и последний живые ключи ищутся мимо целых узлов из помеченных
+        for (int i = 0; i < 100; i++) {
+            tree.markDeleted(expected.pollFirst());
+            tree.markDeleted(expected.pollLast());
+        }
+        assertEquals(List.of(expected.first(), expected.last()), tree.findFirstAndLast());
+        List<String> iterated = new ArrayList<>();
+        tree.iterator().forEachRemaining(iterated::add);
+        assertEquals(new ArrayList<>(expected), iterated);
+        List<String> visited = new ArrayList<>();
+        tree.forEach(visited::add);
+        assertEquals(new ArrayList<>(expected), visited);
+
+        //Повторная пометка и добавление помеченного ключа
+        var first = tree.findFirstAndLast().get(0);
+        assertTrue(tree.markDeleted(first));
+        assertFalse(tree.markDeleted(first));
+        assertTrue(tree.add(first));
+        assertTrue(tree.isExists(first));
+        tree.checkInvariants();
+    }
+
+    //Шарды в режиме ленивого удаления с фильтрами Блума; компактизация по сроку идёт вперемешку с изменениями
+    @Test
+    void shardCompactionWithinDeadline() {
+        var bloom = new RowsBloomFilter.Config(16, 0.01, new RowsBloomFilter.Stats());
+        var tree = new PartitionedTree("test", 3, LengthFirstOrdering.INSTANCE, List.of("5", "a", "zz"),
+                (type, namespace, rows) -> {}, bloom, true);
+        var expected = new TreeSet<>(LengthFirstOrdering.INSTANCE::compare);
+        var random = new Random(11);
+        for (int i = 0; i < 30_000; i++) {
+            var row = Integer.toString(random.nextInt(5000), 36);
+            int operation = random.nextInt(100);
+            if (operation < 40) {
+                tree.add(row);
+                expected.add(row);
+            } else if (operation < 60) {
+                tree.remove(row);
+                expected.remove(row);
+            } else if (operation < 62) {
+                List<String> rows = new ArrayList<>();
+                for (int j = 0; j < 50; j++) {
+                    rows.add(Integer.toString(random.nextInt(5000), 36));
+                }
+                tree.removeAll(rows);
+                rows.forEach(expected::remove);
+            } else if (operation == 62) {
+                var to = Integer.toString(random.nextInt(5000), 36);
+                if (LengthFirstOrdering.INSTANCE.compare(row, to) < 0) {
+                    var range = expected.subSet(row, false, to, false);
+                    assertEquals(range.size(), tree.deleteBetween(row, to));
+                    range.clear();
+                }
+            } else if (operation == 63) {
+                long tombstones = tree.getTombstonesCount();
+                int removed = tree.compact(System.nanoTime() + 1_000_000_000L, 64);
+                assertEquals(tombstones, removed);
+                assertEquals(0, tree.getTombstonesCount());
+            } else if (operation == 64) {
+                //Срок уже вышел - ни одной порции
+                assertEquals(0, tree.compact(System.nanoTime() - 1, 64));
+            } else {
+                assertEquals(expected.contains(row), tree.contains(row), "contains " + row);
+            }
+            assertEquals(expected.size(), tree.size());
+        }
+        assertEquals(new ArrayList<>(expected), tree.findAll());
+        tree.compact(System.nanoTime() + 1_000_000_000L, 64);
+        assertEquals(0, tree.getTombstonesCount());
+        assertEquals(new ArrayList<>(expected), tree.findAll());
+    }
+}
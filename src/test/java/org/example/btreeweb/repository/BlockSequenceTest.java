@@ -0,0 +1,57 @@
+package org.example.btreeweb.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockSequenceTest {
+
+    //Несколько потоков проходят через смену блоков: номера не повторяются, у каждого потока возрастают,
+    //а last() не меньше уже выданных
+    @Test
+    void concurrentNumbersAreUniqueAcrossBlocks() {
+        var sequence = BlockSequence.nodeIds();
+        int threads = 4;
+        int perThread = (int) (BlockSequence.BLOCK * 3 / 4);
+        List<CompletableFuture<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                long[] values = new long[perThread];
+                for (int i = 0; i < perThread; i++) {
+                    values[i] = sequence.next();
+                    assertTrue(i == 0 || values[i] > values[i - 1]);
+                    assertTrue(sequence.last() >= values[i]);
+                }
+                return values;
+            }));
+        }
+        long[] all = new long[threads * perThread];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(futures.get(t).join(), 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertTrue(all[i] > all[i - 1], "номер " + all[i] + " выдан дважды");
+        }
+        assertEquals(all[all.length - 1], sequence.last());
+    }
+
+    //Последовательность, созданная позже, начинает выше всего, что выдала прежняя
+    @Test
+    void laterSequenceStartsAboveEarlierOne() {
+        var first = BlockSequence.versions();
+        long last = 0;
+        for (int i = 0; i < 1000; i++) {
+            last = first.next();
+        }
+        var second = BlockSequence.versions();
+        assertTrue(second.last() >= last);
+        assertTrue(second.next() > last);
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.btreeweb.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//Шарды пространства имён против одного TreeSet; диапазоны удаления и запросов переходят через границы шардов
+class PartitionedTreeTest {
+
+    @Test
+    void randomMutationsMatchTreeSet() {
+        var random = new Random(2);
+        var tree = new PartitionedTree("test", 3, LengthFirstOrdering.INSTANCE, List.of("5", "a", "zz"),
+                (type, namespace, rows) -> {}, null, false);
+        var expected = new TreeSet<>(LengthFirstOrdering.INSTANCE::compare);
+        for (int i = 0; i < 30_000; i++) {
+            var row = Integer.toString(random.nextInt(5000), 36);
+            int operation = random.nextInt(100);
+            if (operation < 40) {
+                tree.add(row);
+                expected.add(row);
+            } else if (operation < 60) {
+                tree.remove(row);
+                expected.remove(row);
+            } else if (operation < 62) {
+                List<String> rows = new ArrayList<>();
+                for (int j = 0; j < 50; j++) {
+                    rows.add(Integer.toString(random.nextInt(5000), 36));
+                }
+                if (random.nextBoolean()) {
+                    tree.addAll(rows);
+                    expected.addAll(rows);
+                } else {
+                    tree.removeAll(rows);
+                    rows.forEach(expected::remove);
+                }
+            } else if (operation < 65) {
+                var to = Integer.toString(random.nextInt(5000), 36);
+                if (LengthFirstOrdering.INSTANCE.compare(row, to) < 0) {
+                    var range = expected.subSet(row, false, to, false);
+                    assertEquals(range.size(), tree.deleteBetween(row, to));
+                    range.clear();
+                }
+            } else if (operation < 67) {
+                var to = Integer.toString(random.nextInt(5000), 36);
+                if (LengthFirstOrdering.INSTANCE.compare(row, to) < 0) {
+                    assertEquals(new ArrayList<>(expected.subSet(row, false, to, false)), tree.findBetween(row, to));
+                }
+            } else {
+                assertEquals(expected.contains(row), tree.contains(row), "contains " + row);
+            }
+        }
+        assertEquals(expected.size(), tree.size());
+        assertEquals(new ArrayList<>(expected), tree.findAll());
+    }
+}
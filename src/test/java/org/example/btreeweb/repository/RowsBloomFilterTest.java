@@ -0,0 +1,126 @@
+package org.example.btreeweb.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Фильтр Блума: без ложных отрицаний, доля ложных срабатываний около заданной, пересборка по ёмкости и удалённым ключам
+class RowsBloomFilterTest {
+
+    private static RowsBloomFilter.Config config(int initialCapacity) {
+        return new RowsBloomFilter.Config(initialCapacity, 0.01, new RowsBloomFilter.Stats());
+    }
+
+    @Test
+    void addedKeysAreFoundAndFalsePositivesStayNearTarget() {
+        var filter = RowsBloomFilter.empty(config(10_000));
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("key" + i);
+        }
+        assertEquals(10_000, filter.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("key" + i), "key" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("absent" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "ложных срабатываний " + falsePositives + " из 100000");
+    }
+
+    @Test
+    void rebuildIsNeededPastCapacityOrWithManyStaleKeys() {
+        var filter = RowsBloomFilter.empty(config(64));
+        for (int i = 0; i < 60; i++) {
+            filter.put("key" + i);
+        }
+        assertFalse(filter.needsRebuild(4));
+        assertTrue(filter.needsRebuild(5));
+
+        filter = RowsBloomFilter.empty(config(64));
+        for (int i = 0; i < 10; i++) {
+            filter.put("key" + i);
+        }
+        filter.removed(8);
+        assertEquals(2, filter.size());
+        assertFalse(filter.needsRebuild(0));
+        filter.removed(1);
+        assertTrue(filter.needsRebuild(0));
+    }
+
+    @Test
+    void rebuildTakesLiveKeysWithSpareCapacity() {
+        var config = config(16);
+        var tree = new BTree<>(3, LengthFirstOrdering.INSTANCE);
+        for (int i = 0; i < 1000; i++) {
+            tree.add(Integer.toString(i, 36));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            tree.remove(Integer.toString(i, 36));
+        }
+        var filter = RowsBloomFilter.rebuild(config, tree, tree.size());
+        assertEquals(500, filter.size());
+        tree.forEach(key -> assertTrue(filter.mightContain(key), key));
+        assertFalse(filter.needsRebuild(500));
+        assertTrue(filter.needsRebuild(501));
+        assertEquals(1, config.stats().getRebuilds());
+    }
+
+    //Фильтры шардов при случайных изменениях: contains совпадает с TreeSet, то есть ложных отрицаний нет,
+    //а ложные срабатывания и пересборки отражаются в статистике
+    @Test
+    void shardFiltersNeverGiveFalseNegatives() {
+        var config = config(16);
+        var tree = new PartitionedTree("test", 3, LengthFirstOrdering.INSTANCE, List.of("5", "a", "zz"),
+                (type, namespace, rows) -> {}, config, false);
+        var expected = new TreeSet<>(LengthFirstOrdering.INSTANCE::compare);
+        var random = new Random(7);
+        for (int i = 0; i < 30_000; i++) {
+            var row = Integer.toString(random.nextInt(5000), 36);
+            int operation = random.nextInt(100);
+            if (operation < 35) {
+                tree.add(row);
+                expected.add(row);
+            } else if (operation < 55) {
+                tree.remove(row);
+                expected.remove(row);
+            } else if (operation < 57) {
+                List<String> rows = new ArrayList<>();
+                for (int j = 0; j < 200; j++) {
+                    rows.add(Integer.toString(random.nextInt(5000), 36));
+                }
+                if (random.nextBoolean()) {
+                    tree.addAll(rows);
+                    expected.addAll(rows);
+                } else {
+                    tree.removeAll(rows);
+                    rows.forEach(expected::remove);
+                }
+            } else if (operation == 57) {
+                var to = Integer.toString(random.nextInt(5000), 36);
+                if (LengthFirstOrdering.INSTANCE.compare(row, to) < 0) {
+                    var range = expected.subSet(row, false, to, false);
+                    assertEquals(range.size(), tree.deleteBetween(row, to));
+                    range.clear();
+                }
+            } else if (operation == 58 && random.nextInt(20) == 0) {
+                tree.clear();
+                expected.clear();
+            } else {
+                assertEquals(expected.contains(row), tree.contains(row), "contains " + row);
+            }
+        }
+        assertEquals(new ArrayList<>(expected), tree.findAll());
+        var stats = config.stats();
+        assertTrue(stats.getRebuilds() > 0);
+        assertTrue(stats.getNegatives() > 0);
+        assertTrue(stats.falsePositiveRate() < 0.05, "доля ложных срабатываний " + stats.falsePositiveRate());
+    }
+}
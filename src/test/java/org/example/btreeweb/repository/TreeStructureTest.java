@@ -0,0 +1,183 @@
+package org.example.btreeweb.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.exception.TreeNodeNotFoundException;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//Клиент, который держит у себя копию узлов и догружает её через changedSince, должен сходиться с полной структурой
+class TreeStructureTest {
+
+    private static final int ALL = Integer.MAX_VALUE;
+
+    private static PartitionedTree tree(boolean lazyDelete) {
+        return new PartitionedTree("test", 2, LengthFirstOrdering.INSTANCE, List.of("5", "a", "zz"),
+                (type, namespace, rows) -> {}, null, lazyDelete);
+    }
+
+    //Узлы, достижимые от корней по спискам детей, - то, что клиент нарисует
+    private static Set<TreeNodeSummary> reachable(List<Long> roots, Map<Long, TreeNodeSummary> nodes) {
+        Set<TreeNodeSummary> result = new HashSet<>();
+        Deque<Long> pending = new ArrayDeque<>(roots);
+        while (!pending.isEmpty()) {
+            var node = nodes.get(pending.pop());
+            assertNotNull(node);
+            result.add(node);
+            pending.addAll(node.children());
+        }
+        return result;
+    }
+
+    private static void apply(Map<Long, TreeNodeSummary> model, List<TreeNodeSummary> nodes) {
+        for (var node : nodes) {
+            model.put(node.id(), node);
+        }
+    }
+
+    //Порядок чтения PartitionedTree.changedSince: номер, шард A, затем запись в A и B, затем шард B.
+    //Изменение A, сделанное после чтения A, должно прийти в следующем ответе
+    @Test
+    void changesBetweenShardReadsAreNotLost() {
+        var versions = BlockSequence.versions();
+        var a = new BTree<>(2, LengthFirstOrdering.INSTANCE, versions);
+        var b = new BTree<>(2, LengthFirstOrdering.INSTANCE, versions);
+        for (int i = 0; i < 20; i++) {
+            a.add("a" + i);
+            b.add("b" + i);
+        }
+
+        long since = versions.last();
+        long version = versions.last();
+        List<TreeNodeSummary> changes = new ArrayList<>();
+        a.changedSince(since, ALL, changes);
+        a.add("a100");
+        b.add("b100");
+        b.changedSince(since, ALL, changes);
+        assertTrue(changes.stream().noneMatch(node -> node.keys().contains("a100")));
+        assertTrue(changes.stream().anyMatch(node -> node.keys().contains("b100")));
+
+        changes.clear();
+        a.changedSince(version, ALL, changes);
+        b.changedSince(version, ALL, changes);
+        assertTrue(changes.stream().anyMatch(node -> node.keys().contains("a100")));
+        assertTrue(changes.stream().anyMatch(node -> node.keys().contains("b100")));
+    }
+
+    @Test
+    void clientModelConvergesUnderConcurrentWrites() {
+        for (boolean lazyDelete : new boolean[]{false, true}) {
+            var tree = tree(lazyDelete);
+            var initial = tree.structure(ALL, ALL);
+            Map<Long, TreeNodeSummary> model = new HashMap<>();
+            apply(model, initial.nodes());
+            List<Long> roots = initial.roots();
+            long since = initial.version();
+
+            var writer = CompletableFuture.runAsync(() -> {
+                var random = new Random(lazyDelete ? 3 : 4);
+                for (int i = 0; i < 50_000; i++) {
+                    var row = Integer.toString(random.nextInt(3000), 36);
+                    int operation = random.nextInt(100);
+                    if (operation < 55) {
+                        tree.add(row);
+                    } else if (operation < 98) {
+                        tree.remove(row);
+                    } else if (operation == 98) {
+                        tree.deleteBetween(row, row + "zz");
+                    } else {
+                        tree.compact(System.nanoTime() + 1_000_000_000L, 64);
+                    }
+                }
+            });
+            while (!writer.isDone()) {
+                var changes = tree.changedSince(since, ALL);
+                apply(model, changes.nodes());
+                roots = changes.roots();
+                since = changes.version();
+            }
+            writer.join();
+            var changes = tree.changedSince(since, ALL);
+            apply(model, changes.nodes());
+            roots = changes.roots();
+
+            var full = tree.structure(ALL, ALL);
+            assertEquals(full.roots(), roots);
+            assertEquals(new HashSet<>(full.nodes()), reachable(roots, model));
+        }
+    }
+
+    //Клиент запомнил структуру, пространство имён удалили и создали заново (так же делает восстановление из снимка).
+    //Новые узлы должны прийти в changedSince со старой версией, а старые id - не достаться новым узлам
+    @Test
+    void recreatedNamespaceNeverReusesVersionsOrIds() {
+        var repository = new BTreeRowsRepository(2, "length", "ru-RU", true, 1024, 0.01, "eager", 64,
+                List.of(), new SimpleMeterRegistry());
+        repository.createNamespace("recreated", List.of("5"));
+        for (int i = 0; i < 200; i++) {
+            repository.add("recreated", Integer.toString(i, 36));
+        }
+        var before = repository.findStructure("recreated", ALL, ALL);
+        Map<Long, TreeNodeSummary> model = new HashMap<>();
+        apply(model, before.nodes());
+
+        repository.dropNamespace("recreated");
+        repository.createNamespace("recreated", List.of("5"));
+        for (int i = 0; i < 30; i++) {
+            repository.add("recreated", "x" + i);
+        }
+        var changes = repository.findStructureChanges("recreated", before.version(), ALL);
+        var full = repository.findStructure("recreated", ALL, ALL);
+        assertTrue(changes.version() > before.version());
+        assertEquals(new HashSet<>(full.nodes()), new HashSet<>(changes.nodes()));
+        for (var node : full.nodes()) {
+            assertFalse(model.containsKey(node.id()), "id " + node.id() + " уже был у старого узла");
+        }
+        for (var node : before.nodes()) {
+            assertThrows(TreeNodeNotFoundException.class,
+                    () -> repository.findNodeChildren("recreated", node.id(), 0, ALL));
+        }
+        apply(model, changes.nodes());
+        assertEquals(new HashSet<>(full.nodes()), reachable(changes.roots(), model));
+    }
+
+    //expand находит каждый узел дерева по id, а выпавшие из дерева узлы - нет
+    @Test
+    void expandFollowsSplitsAndMerges() {
+        var random = new Random(5);
+        var tree = tree(false);
+        Set<Long> previous = new HashSet<>();
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < 500; i++) {
+                var row = Integer.toString(random.nextInt(2000), 36);
+                if (random.nextInt(100) < (round % 2 == 0 ? 70 : 30)) {
+                    tree.add(row);
+                } else {
+                    tree.remove(row);
+                }
+            }
+            if (round % 5 == 4) {
+                tree.deleteBetween("1", "5" + round);
+            }
+            var full = tree.structure(ALL, ALL);
+            Set<Long> current = new HashSet<>();
+            for (var node : full.nodes()) {
+                current.add(node.id());
+                var expanded = tree.expand(node.id(), 0, ALL);
+                assertNotNull(expanded, "узел " + node.id());
+                assertEquals(List.of(node), expanded.nodes());
+            }
+            for (var id : previous) {
+                if (!current.contains(id)) {
+                    assertNull(tree.expand(id, 0, ALL));
+                }
+            }
+            previous = current;
+        }
+        assertNull(tree.expand(0, 0, ALL));
+        assertNull(tree.expand(-3, 0, ALL));
+    }
+}
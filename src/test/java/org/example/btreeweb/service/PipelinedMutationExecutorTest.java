@@ -0,0 +1,131 @@
+package org.example.btreeweb.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.exception.FailedToAddKeyException;
+import org.example.btreeweb.exception.WriteQueueFullException;
+import org.example.btreeweb.repository.BTreeRowsRepository;
+import org.example.btreeweb.repository.RowsChangeListener;
+import org.example.btreeweb.repository.RowsRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Писатель задерживается на изменении "gate", пока тест не наберёт очередь, - так следующая пачка известна заранее.
+Что именно слилось, видно по событиям журнала: слитая серия - одно событие со всеми её строками.
+*/
+class PipelinedMutationExecutorTest {
+
+    private static final String GATE = "gate";
+
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final CountDownLatch gateEntered = new CountDownLatch(1);
+    private final CountDownLatch gateReleased = new CountDownLatch(1);
+    private final RowsRepository repository = new BTreeRowsRepository(2, "length", "ru-RU", true, 1024, 0.01,
+            "eager", 64, List.of(recorder()), new SimpleMeterRegistry());
+
+    private RowsChangeListener recorder() {
+        return (type, namespace, rows) -> {
+            if (rows.equals(List.of(GATE))) {
+                gateEntered.countDown();
+                try {
+                    gateReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            events.add(type + " " + namespace + " " + rows);
+        };
+    }
+
+    private PipelinedMutationExecutor executor(int queueCapacity, long offerTimeoutMs) throws InterruptedException {
+        repository.createNamespace("n", List.of());
+        repository.createNamespace("m", List.of());
+        events.clear();
+        var executor = new PipelinedMutationExecutor(repository, queueCapacity, 256, offerTimeoutMs);
+        executor.start();
+        executor.submit(Mutation.add("n", GATE));
+        assertTrue(gateEntered.await(10, TimeUnit.SECONDS));
+        return executor;
+    }
+
+    private static List<Integer> join(List<CompletableFuture<Integer>> futures) {
+        List<Integer> results = new ArrayList<>();
+        futures.forEach(future -> results.add(future.join()));
+        return results;
+    }
+
+    //Сливаются только соседние однотипные ADD/REMOVE одного пространства имён, порядок серий сохраняется
+    @Test
+    void coalescesAdjacentRunsInOrder() throws InterruptedException {
+        var executor = executor(100, 1000);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (var mutation : List.of(
+                Mutation.add("n", "c"), Mutation.add("n", "a"), Mutation.add("n", "b"),
+                Mutation.remove("n", "a"), Mutation.remove("n", "b"),
+                Mutation.add("m", "x"),
+                Mutation.add("n", "d"),
+                Mutation.clear("m"),
+                Mutation.add("n", "e"), Mutation.add("n", "f"))) {
+            futures.add(executor.submit(mutation));
+        }
+        gateReleased.countDown();
+
+        assertEquals(List.of(1, 1, 1, 1, 1, 1, 1, 0, 1, 1), join(futures));
+        assertEquals(List.of(
+                "ADD n [a, b, c]",
+                "REMOVE n [a, b]",
+                "ADD m [x]",
+                "ADD n [d]",
+                "CLEAR m []",
+                "ADD n [e, f]"), events);
+        assertEquals(List.of("c", "d", "e", "f", GATE), repository.findAll("n"));
+        assertEquals(List.of(), repository.findAll("m"));
+        executor.stop();
+    }
+
+    //Ошибка слитой серии разбирается поштучно: её получает только виновный запрос
+    @Test
+    void failedRunFallsBackToSingleMutations() throws InterruptedException {
+        var executor = executor(100, 1000);
+        var first = executor.submit(Mutation.add("n", "p"));
+        var broken = executor.submit(Mutation.add("n", null));
+        var last = executor.submit(Mutation.add("n", "q"));
+        gateReleased.countDown();
+
+        assertEquals(List.of(1, 1), join(List.of(first, last)));
+        var error = assertThrows(CompletionException.class, broken::join);
+        assertInstanceOf(FailedToAddKeyException.class, error.getCause());
+        assertEquals(List.of("ADD n [p]", "ADD n [q]"), events);
+        assertEquals(List.of("p", "q", GATE), repository.findAll("n"));
+        executor.stop();
+    }
+
+    //Пока писатель занят, очередь заполняется, и лишний запрос через offer-timeout-ms получает отказ,
+    //а принятые ранее применяются, когда писатель освободится
+    @Test
+    void fullQueueRejectsAfterOfferTimeout() throws InterruptedException {
+        var executor = executor(2, 50);
+        var accepted = List.of(executor.submit(Mutation.add("n", "a")), executor.submit(Mutation.add("n", "b")));
+        long start = System.nanoTime();
+        var rejected = executor.submit(Mutation.add("n", "c"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        var error = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(WriteQueueFullException.class, error.getCause());
+        gateReleased.countDown();
+
+        assertEquals(List.of(1, 1), join(accepted));
+        assertEquals(List.of("a", "b", GATE), repository.findAll("n"));
+        assertEquals(List.of("ADD n [a, b]"), events);
+        executor.stop();
+    }
+}
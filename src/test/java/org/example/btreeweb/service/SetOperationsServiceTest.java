@@ -0,0 +1,127 @@
+package org.example.btreeweb.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.btreeweb.exception.UnsortedRowsException;
+import org.example.btreeweb.repository.BTreeRowsRepository;
+import org.example.btreeweb.repository.LengthFirstOrdering;
+import org.example.btreeweb.repository.RowsRepository;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+//Каждая операция с apply и без сверяется с TreeSet. Маленький batchSize заставляет читать дерево многими страницами
+class SetOperationsServiceTest {
+
+    private static final String NAMESPACE = "sets";
+
+    private RowsRepository repository;
+    private SetOperationsService service;
+
+    private void setUp(List<String> treeRows) {
+        repository = new BTreeRowsRepository(2, "length", "ru-RU", true, 1024, 0.01, "eager", 64,
+                List.of(), new SimpleMeterRegistry());
+        repository.createNamespace(NAMESPACE, List.of("5", "k"));
+        repository.addAll(NAMESPACE, treeRows);
+        service = new SetOperationsService(repository, new LockedMutationExecutor(repository), 7);
+    }
+
+    private static List<String> rows(Random random, int count) {
+        List<String> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(Integer.toString(random.nextInt(count * 2), 36));
+        }
+        return rows;
+    }
+
+    private static int compare(String s1, String s2) {
+        return LengthFirstOrdering.INSTANCE.compare(s1, s2);
+    }
+
+    private static ByteArrayInputStream file(List<String> lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static TreeSet<String> expected(SetOperation operation, Set<String> tree, Set<String> file) {
+        var result = new TreeSet<String>(SetOperationsServiceTest::compare);
+        for (var row : tree) {
+            if (file.contains(row) ? operation.keepsCommon() : operation.keepsTreeOnly()) {
+                result.add(row);
+            }
+        }
+        for (var row : file) {
+            if (!tree.contains(row) && operation.keepsFileOnly()) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    void everyOperationMatchesTreeSet() throws IOException {
+        var random = new Random(7);
+        for (var operation : SetOperation.values()) {
+            for (boolean apply : new boolean[]{false, true}) {
+                for (boolean presorted : new boolean[]{false, true}) {
+                    var treeRows = rows(random, 300);
+                    var fileRows = rows(random, 300);
+                    if (presorted) {
+                        fileRows.sort(SetOperationsServiceTest::compare);
+                    }
+                    setUp(treeRows);
+                    var tree = new TreeSet<>(SetOperationsServiceTest::compare);
+                    tree.addAll(treeRows);
+                    var fileSet = new TreeSet<>(SetOperationsServiceTest::compare);
+                    fileSet.addAll(fileRows);
+                    var expected = expected(operation, tree, fileSet);
+
+                    List<String> result = new ArrayList<>();
+                    SetOperationResult counts;
+                    try (var lines = service.sortedLines(NAMESPACE, file(fileRows), presorted)) {
+                        counts = service.apply(NAMESPACE, operation, lines, apply, result::add);
+                    }
+                    var message = operation + " apply=" + apply + " presorted=" + presorted;
+                    assertEquals(new ArrayList<>(expected), result, message);
+                    assertEquals(expected.size(), counts.size(), message);
+                    if (apply) {
+                        assertEquals(new ArrayList<>(expected), repository.findAll(NAMESPACE), message);
+                        var added = new TreeSet<>(expected);
+                        added.removeAll(tree);
+                        var removed = new TreeSet<>(tree);
+                        removed.removeAll(expected);
+                        assertEquals(added.size(), counts.added(), message);
+                        assertEquals(removed.size(), counts.removed(), message);
+                    } else {
+                        assertEquals(new ArrayList<>(tree), repository.findAll(NAMESPACE), message);
+                        assertEquals(0, counts.added() + counts.removed(), message);
+                    }
+                }
+            }
+        }
+    }
+
+    //Файл с sorted=true, порядок которого нарушен далеко за первой пачкой изменений: дерево не меняется
+    @Test
+    void unsortedFileLeavesTreeUntouched() {
+        var random = new Random(8);
+        var treeRows = rows(random, 300);
+        setUp(treeRows);
+        var before = repository.findAll(NAMESPACE);
+        List<String> fileRows = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            fileRows.add("z" + Integer.toString(i + 1000, 36));
+        }
+        fileRows.add("0");
+        assertThrows(UnsortedRowsException.class, () -> service.sortedLines(NAMESPACE, file(fileRows), true));
+        assertEquals(before, repository.findAll(NAMESPACE));
+    }
+}
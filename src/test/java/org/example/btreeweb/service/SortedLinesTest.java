@@ -0,0 +1,89 @@
+package org.example.btreeweb.service;
+
+import org.example.btreeweb.exception.UnsortedRowsException;
+import org.example.btreeweb.repository.CollatorOrdering;
+import org.example.btreeweb.repository.LengthFirstOrdering;
+import org.example.btreeweb.repository.RowOrdering;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SortedLinesTest {
+
+    private static <K> List<String> read(List<String> lines, RowOrdering<K> ordering, int chunkSize,
+                                         boolean presorted) throws IOException {
+        var input = new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        List<String> result = new ArrayList<>();
+        try (var sorted = SortedLines.open(input, ordering, chunkSize, presorted)) {
+            sorted.forEachRemaining(result::add);
+        }
+        return result;
+    }
+
+    private static List<String> expected(List<String> lines, RowOrdering<?> ordering) {
+        var set = new TreeSet<String>((s1, s2) -> compare(ordering, s1, s2));
+        set.addAll(lines);
+        return new ArrayList<>(set);
+    }
+
+    private static <K> int compare(RowOrdering<K> ordering, String s1, String s2) {
+        return ordering.compare(ordering.key(s1), ordering.key(s2));
+    }
+
+    //Внешняя сортировка: в памяти (один кусок) и через временные файлы, повторы внутри куска и между кусками
+    @Test
+    void unsortedInputIsSortedWithoutDuplicates() throws IOException {
+        var random = new Random(1);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            lines.add(Integer.toString(random.nextInt(2000), 36));
+        }
+        for (RowOrdering<?> ordering : List.of(LengthFirstOrdering.INSTANCE, new CollatorOrdering(Locale.forLanguageTag("ru-RU")))) {
+            for (int chunkSize : new int[]{7, 1000, 10_000}) {
+                assertEquals(expected(lines, ordering), read(lines, ordering, chunkSize, false), "chunkSize " + chunkSize);
+            }
+        }
+        assertEquals(List.of(), read(List.of(), LengthFirstOrdering.INSTANCE, 10, false));
+        assertEquals(List.of("ёж", "ель"), read(List.of("ель", "ёж", "ёж"), new CollatorOrdering(Locale.forLanguageTag("ru-RU")), 10, false));
+    }
+
+    //Отсортированный файл отдаётся как есть, подряд идущие повторы выбрасываются - и из памяти, и из временного файла
+    @Test
+    void presortedInputKeepsOrderAndDropsDuplicates() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            lines.add(Integer.toString(i, 36));
+            if (i % 3 == 0) {
+                lines.add(Integer.toString(i, 36));
+            }
+        }
+        var expected = expected(lines, LengthFirstOrdering.INSTANCE);
+        assertEquals(expected, read(lines, LengthFirstOrdering.INSTANCE, 1000, true));
+        assertEquals(expected, read(lines, LengthFirstOrdering.INSTANCE, 16, true));
+    }
+
+    //Нарушение порядка обнаруживается в open, даже если оно в самом конце файла, длиннее одного куска
+    @Test
+    void orderViolationIsReportedBeforeAnyLineIsReturned() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            lines.add(Integer.toString(i + 1000, 36));
+        }
+        lines.add("0");
+        for (int chunkSize : new int[]{10, 1000}) {
+            var input = new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+            assertThrows(UnsortedRowsException.class,
+                    () -> SortedLines.open(input, LengthFirstOrdering.INSTANCE, chunkSize, true));
+        }
+    }
+}